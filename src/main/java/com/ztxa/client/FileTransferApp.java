@@ -1,10 +1,13 @@
 package com.ztxa.client;
 
 import com.ztxa.client.config.AppConfig;
+import com.ztxa.client.database.TaskProgressWriter;
 import com.ztxa.client.model.FileInfo;
 import com.ztxa.client.service.FileListService;
 import com.ztxa.client.service.InstanceLockService;
+import com.ztxa.client.service.TcpConnectionPool;
 import com.ztxa.client.ui.CustomTrayMenu;
+import com.ztxa.client.ui.ProgressPulse;
 import com.ztxa.client.ui.SettingsController;
 import com.ztxa.client.ui.TransferListController;
 import com.ztxa.client.service.IpcService;
@@ -29,8 +32,6 @@ import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
 
 public class FileTransferApp extends Application {
     private static final Logger logger = LoggerFactory.getLogger(FileTransferApp.class);
@@ -40,7 +41,7 @@ public class FileTransferApp extends Application {
     private TrayIcon trayIcon;
     private CustomTrayMenu customTrayMenu;
     private FileListService fileListService;
-    private Timer pollTimer;
+    private ProgressPulse progressPulse;
     
     @Override
     public void start(Stage primaryStage) {
@@ -64,6 +65,9 @@ public class FileTransferApp extends Application {
             return;
         }
         
+        // 初始化服务（协议链接只带 fileId 时要用它查询文件详情，需先于 IPC 服务端创建）
+        fileListService = new FileListService();
+        
         // 启动 IPC 服务端监听新实例的消息
         IpcService.startServer(this::handleProtocolUrl);
         
@@ -71,8 +75,9 @@ public class FileTransferApp extends Application {
         Platform.setImplicitExit(false);
         setupSystemTray();
         
-        // 初始化服务
-        fileListService = new FileListService();
+        // 每帧统一发布下载进度到界面
+        progressPulse = new ProgressPulse();
+        progressPulse.start();
         
         // 启动定时任务
         startPollingTask();
@@ -90,7 +95,20 @@ public class FileTransferApp extends Application {
     
     private void handleProtocolUrl(String url) {
         FileInfo info = ProtocolHandlerService.parseUrl(url);
-        if (info != null) {
+        if (info != null && info.getFileName() == null) {
+            // 链接只带 fileId：向服务端查询文件详情，多个链接同时到达时并发查询
+            fileListService.prepareDownloadAsync(info.getFileId()).thenAccept(prepared -> {
+                if (prepared != null) {
+                    logger.info("处理协议下载请求: {}", prepared.getFileName());
+                    Platform.runLater(() -> {
+                        showTransferList();
+                        if (transferController != null) {
+                            transferController.addDownloadTasks(java.util.Collections.singletonList(prepared));
+                        }
+                    });
+                }
+            });
+        } else if (info != null) {
             logger.info("处理协议下载请求: {}", info.getFileName());
             Platform.runLater(() -> {
                 showTransferList();
@@ -169,10 +187,17 @@ public class FileTransferApp extends Application {
 
     private void handleExit() {
         stopPollingTask();
+        if (progressPulse != null) {
+            progressPulse.stop();
+        }
         IpcService.stopServer();
         if (fileListService != null) {
             fileListService.close();
         }
+        // 退出前把尚未写入的下载进度落盘
+        TaskProgressWriter.getInstance().shutdown();
+        // 关闭空闲的下载数据连接，停止读取超时检查线程
+        TcpConnectionPool.getInstance().close();
         Platform.exit();
         System.exit(0);
     }
@@ -216,56 +241,40 @@ public class FileTransferApp extends Application {
     }
     
     private void startPollingTask() {
-        AppConfig config = AppConfig.getInstance();
-        pollTimer = new Timer(true);
-        int intervalSeconds = config.getPollInterval();
-        logger.info("启动文件轮询任务，间隔: {} 秒", intervalSeconds);
+        // 服务端支持长轮询时列表一变化就会返回，不支持时按轮询间隔定时请求
+        logger.info("启动文件列表监听，轮询间隔（不支持长轮询时）: {} 秒", AppConfig.getInstance().getPollInterval());
         
-        pollTimer.scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
-                try {
-                    logger.debug("开始轮询文件列表...");
-                    List<FileInfo> fileList = fileListService.fetchFileList();
+        fileListService.startWatching(fileList -> {
+            logger.info("轮询到 {} 个文件", fileList.size());
+            Platform.runLater(() -> {
+                // 只有在有新任务时才自动打开窗口
+                if (transferController != null) {
+                    int beforeSize = transferController.getActiveTasks().size();
+                    transferController.addDownloadTasks(fileList);
+                    int afterSize = transferController.getActiveTasks().size();
                     
-                    if (fileList != null && !fileList.isEmpty()) {
-                        logger.info("轮询到 {} 个文件", fileList.size());
-                        Platform.runLater(() -> {
-                            // 只有在有新任务时才自动打开窗口
-                            if (transferController != null) {
-                                int beforeSize = transferController.getActiveTasks().size();
-                                transferController.addDownloadTasks(fileList);
-                                int afterSize = transferController.getActiveTasks().size();
-                                
-                                logger.debug("任务数量: {} -> {}", beforeSize, afterSize);
-                                
-                                // 如果添加了新任务且窗口未显示，则打开窗口
-                                if (afterSize > beforeSize && (transferStage == null || !transferStage.isShowing())) {
-                                    logger.info("检测到新任务，打开传输列表窗口");
-                                    showTransferList();
-                                }
-                            } else {
-                                // 首次有文件时才打开
-                                logger.info("首次检测到文件，打开传输列表窗口");
-                                showTransferList();
-                                if (transferController != null) {
-                                    transferController.addDownloadTasks(fileList);
-                                }
-                            }
-                        });
-                    } else {
-                        logger.debug("暂无文件");
+                    logger.debug("任务数量: {} -> {}", beforeSize, afterSize);
+                    
+                    // 如果添加了新任务且窗口未显示，则打开窗口
+                    if (afterSize > beforeSize && (transferStage == null || !transferStage.isShowing())) {
+                        logger.info("检测到新任务，打开传输列表窗口");
+                        showTransferList();
+                    }
+                } else {
+                    // 首次有文件时才打开
+                    logger.info("首次检测到文件，打开传输列表窗口");
+                    showTransferList();
+                    if (transferController != null) {
+                        transferController.addDownloadTasks(fileList);
                     }
-                } catch (Exception e) {
-                    logger.error("轮询文件列表失败", e);
                 }
-            }
-        }, 1000, intervalSeconds * 1000L);
+            });
+        });
     }
     
     private void stopPollingTask() {
-        if (pollTimer != null) {
-            pollTimer.cancel();
+        if (fileListService != null) {
+            fileListService.stopWatching();
         }
     }
     
@@ -273,6 +282,8 @@ public class FileTransferApp extends Application {
         if (transferStage == null) {
             try {
                 FXMLLoader loader = new FXMLLoader(getClass().getResource("/fxml/transfer-list.fxml"));
+                // 下载服务获取分块清单时复用应用的 FileListService（及其 HTTP 连接池）
+                loader.setControllerFactory(type -> new TransferListController(fileListService));
                 Scene scene = new Scene(loader.load());
                 scene.getStylesheets().add(BootstrapFX.bootstrapFXStylesheet());
                 scene.getStylesheets().add(getClass().getResource("/css/transfer-list.css").toExternalForm());
@@ -18,7 +18,13 @@ public class AppConfig {
     private String downloadPath = System.getProperty("user.home") + File.separator + "Downloads";
     private int pollInterval = 5; // 秒
     private int maxConcurrentDownloads = 3; // 最大同时下载数
+    private int segmentCount = 4; // 单个文件分段下载的连接数（1 表示不分段）
     private String fileExistsBehavior = "SKIP"; // 文件存在时的行为：SKIP (跳过), OVERWRITE (覆盖)
+    private int speedLimitKB = 0; // 全局下载限速（KB/s），0 表示不限速
+    private int taskSpeedLimitKB = 0; // 单个任务默认限速（KB/s），0 表示不限速
+    private String speedLimitSchedule = ""; // 按时间段的全局限速，如 "09:00-18:00=1024;18:00-09:00=0"
+    private boolean preallocateFiles = false; // 开始下载前按文件大小预分配磁盘空间
+    private String durabilityPolicy = "COMMIT"; // 写入持久化：NONE (不刷盘), COMMIT (完成时刷盘), CHECKPOINT (保存进度时也刷盘)
     private String appKey;
     
     private static AppConfig instance;
@@ -65,7 +71,13 @@ public class AppConfig {
         downloadPath = configDAO.getConfig("downloadPath", downloadPath);
         pollInterval = configDAO.getIntConfig("pollInterval", pollInterval);
         maxConcurrentDownloads = configDAO.getIntConfig("maxConcurrentDownloads", maxConcurrentDownloads);
+        segmentCount = configDAO.getIntConfig("segmentCount", segmentCount);
         fileExistsBehavior = configDAO.getConfig("fileExistsBehavior", fileExistsBehavior);
+        speedLimitKB = configDAO.getIntConfig("speedLimitKB", speedLimitKB);
+        taskSpeedLimitKB = configDAO.getIntConfig("taskSpeedLimitKB", taskSpeedLimitKB);
+        speedLimitSchedule = configDAO.getConfig("speedLimitSchedule", speedLimitSchedule);
+        preallocateFiles = Boolean.parseBoolean(configDAO.getConfig("preallocateFiles", String.valueOf(preallocateFiles)));
+        durabilityPolicy = configDAO.getConfig("durabilityPolicy", durabilityPolicy);
     }
     
     private void generateAndSaveAppKey() {
@@ -155,6 +167,15 @@ public class AppConfig {
         configDAO.saveConfig("maxConcurrentDownloads", String.valueOf(maxConcurrentDownloads));
     }
     
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+    
+    public void setSegmentCount(int segmentCount) {
+        this.segmentCount = segmentCount;
+        configDAO.saveConfig("segmentCount", String.valueOf(segmentCount));
+    }
+    
     public String getFileExistsBehavior() {
         return fileExistsBehavior;
     }
@@ -164,6 +185,57 @@ public class AppConfig {
         configDAO.saveConfig("fileExistsBehavior", fileExistsBehavior);
     }
     
+    public int getSpeedLimitKB() {
+        return speedLimitKB;
+    }
+    
+    public void setSpeedLimitKB(int speedLimitKB) {
+        this.speedLimitKB = speedLimitKB;
+        configDAO.saveConfig("speedLimitKB", String.valueOf(speedLimitKB));
+    }
+    
+    public int getTaskSpeedLimitKB() {
+        return taskSpeedLimitKB;
+    }
+    
+    public void setTaskSpeedLimitKB(int taskSpeedLimitKB) {
+        this.taskSpeedLimitKB = taskSpeedLimitKB;
+        configDAO.saveConfig("taskSpeedLimitKB", String.valueOf(taskSpeedLimitKB));
+    }
+    
+    /**
+     * 按时间段的全局限速计划，格式 "HH:mm-HH:mm=KB;..."，匹配的时间段优先于 speedLimitKB
+     */
+    public String getSpeedLimitSchedule() {
+        return speedLimitSchedule;
+    }
+    
+    public void setSpeedLimitSchedule(String speedLimitSchedule) {
+        this.speedLimitSchedule = speedLimitSchedule;
+        configDAO.saveConfig("speedLimitSchedule", speedLimitSchedule);
+    }
+    
+    public boolean isPreallocateFiles() {
+        return preallocateFiles;
+    }
+    
+    public void setPreallocateFiles(boolean preallocateFiles) {
+        this.preallocateFiles = preallocateFiles;
+        configDAO.saveConfig("preallocateFiles", String.valueOf(preallocateFiles));
+    }
+    
+    /**
+     * 下载文件的持久化策略，见 {@link com.ztxa.client.service.PartFile}
+     */
+    public String getDurabilityPolicy() {
+        return durabilityPolicy;
+    }
+    
+    public void setDurabilityPolicy(String durabilityPolicy) {
+        this.durabilityPolicy = durabilityPolicy;
+        configDAO.saveConfig("durabilityPolicy", durabilityPolicy);
+    }
+    
     public String getAppKey() {
         return appKey;
     }
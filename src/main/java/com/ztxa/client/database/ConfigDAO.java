@@ -12,10 +12,13 @@ public class ConfigDAO {
     public void saveConfig(String key, String value) {
         String sql = "INSERT OR REPLACE INTO config (key, value, updated_at) VALUES (?, ?, CURRENT_TIMESTAMP)";
         
-        try (PreparedStatement pstmt = dbManager.getConnection().prepareStatement(sql)) {
-            pstmt.setString(1, key);
-            pstmt.setString(2, value);
-            pstmt.executeUpdate();
+        try {
+            PreparedStatement pstmt = dbManager.prepareCached(sql);
+            synchronized (pstmt) {
+                pstmt.setString(1, key);
+                pstmt.setString(2, value);
+                pstmt.executeUpdate();
+            }
         } catch (SQLException e) {
             System.err.println("Failed to save config: " + e.getMessage());
         }
@@ -24,12 +27,15 @@ public class ConfigDAO {
     public String getConfig(String key, String defaultValue) {
         String sql = "SELECT value FROM config WHERE key = ?";
         
-        try (PreparedStatement pstmt = dbManager.getConnection().prepareStatement(sql)) {
-            pstmt.setString(1, key);
-            ResultSet rs = pstmt.executeQuery();
-            
-            if (rs.next()) {
-                return rs.getString("value");
+        try {
+            PreparedStatement pstmt = dbManager.prepareCached(sql);
+            synchronized (pstmt) {
+                pstmt.setString(1, key);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (rs.next()) {
+                        return rs.getString("value");
+                    }
+                }
             }
         } catch (SQLException e) {
             System.err.println("Failed to get config: " + e.getMessage());
@@ -50,9 +56,12 @@ public class ConfigDAO {
     public void deleteConfig(String key) {
         String sql = "DELETE FROM config WHERE key = ?";
         
-        try (PreparedStatement pstmt = dbManager.getConnection().prepareStatement(sql)) {
-            pstmt.setString(1, key);
-            pstmt.executeUpdate();
+        try {
+            PreparedStatement pstmt = dbManager.prepareCached(sql);
+            synchronized (pstmt) {
+                pstmt.setString(1, key);
+                pstmt.executeUpdate();
+            }
         } catch (SQLException e) {
             System.err.println("Failed to delete config: " + e.getMessage());
         }
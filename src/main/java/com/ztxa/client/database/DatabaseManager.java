@@ -2,12 +2,18 @@ package com.ztxa.client.database;
 
 import java.io.File;
 import java.sql.*;
+import java.util.HashMap;
+import java.util.Map;
 
 public class DatabaseManager {
     private static final String DB_DIR = System.getProperty("user.home") + File.separator + ".file-transfer-client";
     private static final String DB_FILE = DB_DIR + File.separator + "database.db";
     private static DatabaseManager instance;
     private Connection connection;
+    // 后台批量写入专用的连接，见 getWriterConnection
+    private Connection writerConnection;
+    // 预编译语句缓存（按 SQL 文本），连接重建时清空
+    private final Map<String, PreparedStatement> statementCache = new HashMap<>();
     
     private DatabaseManager() {
         initDatabase();
@@ -29,7 +35,7 @@ public class DatabaseManager {
             }
             
             // 连接数据库
-            connection = DriverManager.getConnection("jdbc:sqlite:" + DB_FILE);
+            connection = openConnection();
             
             // 创建表
             createTables();
@@ -138,15 +144,65 @@ public class DatabaseManager {
         stmt.execute("CREATE INDEX IF NOT EXISTS idx_task_file_id ON download_tasks(file_id)");
         stmt.execute("CREATE INDEX IF NOT EXISTS idx_task_file_path ON download_tasks(file_path)");
         stmt.execute("CREATE INDEX IF NOT EXISTS idx_task_status ON download_tasks(status)");
-        stmt.execute("CREATE INDEX IF NOT EXISTS idx_task_created_at ON download_tasks(created_at DESC)");
+        // 分页按 (created_at DESC, task_id DESC) 排序，复合索引让每页都是一次索引范围扫描，时间戳相同时不再临时排序；
+        // 替换旧版本只包含 created_at 的同名索引
+        stmt.execute("DROP INDEX IF EXISTS idx_task_created_at");
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_task_created_at_id ON download_tasks(created_at DESC, task_id DESC)");
+        
+        // 迁移：补充后续版本新增的列
+        addColumnIfMissing(stmt, "download_tasks", "checksum", "TEXT");
+        addColumnIfMissing(stmt, "download_tasks", "speed_limit_kb", "INTEGER DEFAULT 0");
+        
+        // 分块清单缓存，与 download_tasks 按 task_id 一一对应（chunk_hashes 为各块哈希的原始字节依次拼接）
+        stmt.execute(
+            "CREATE TABLE IF NOT EXISTS task_manifests ("
+            + "    task_id TEXT PRIMARY KEY,"
+            + "    file_size INTEGER NOT NULL,"
+            + "    chunk_size INTEGER NOT NULL,"
+            + "    algorithm TEXT NOT NULL,"
+            + "    root_hash TEXT NOT NULL,"
+            + "    chunk_hashes BLOB NOT NULL"
+            + ")"
+        );
         
         stmt.close();
     }
     
-    public Connection getConnection() {
+    private void addColumnIfMissing(Statement stmt, String table, String column, String type) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next()) {
+                if (column.equals(rs.getString("name"))) {
+                    return;
+                }
+            }
+        }
+        stmt.execute("ALTER TABLE " + table + " ADD COLUMN " + column + " " + type);
+        System.out.println("数据库迁移: " + table + " 新增列 " + column);
+    }
+    
+    /**
+     * 打开连接并应用调优参数：
+     * WAL 日志让读写互不阻塞，synchronous=NORMAL 在 WAL 下只在检查点时 fsync，
+     * 另外启用内存映射读取、扩大页缓存，并设置忙等待超时避免偶发的 SQLITE_BUSY
+     */
+    private Connection openConnection() throws SQLException {
+        Connection conn = DriverManager.getConnection("jdbc:sqlite:" + DB_FILE);
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("PRAGMA journal_mode=WAL");
+            stmt.execute("PRAGMA synchronous=NORMAL");
+            stmt.execute("PRAGMA mmap_size=268435456");  // 256MB
+            stmt.execute("PRAGMA cache_size=-16000");    // 约 16MB
+            stmt.execute("PRAGMA temp_store=MEMORY");
+            stmt.execute("PRAGMA busy_timeout=5000");
+        }
+        return conn;
+    }
+    
+    public synchronized Connection getConnection() {
         try {
             if (connection == null || connection.isClosed()) {
-                connection = DriverManager.getConnection("jdbc:sqlite:" + DB_FILE);
+                statementCache.clear();
+                connection = openConnection();
             }
         } catch (SQLException e) {
             e.printStackTrace();
@@ -154,11 +210,48 @@ public class DatabaseManager {
         return connection;
     }
     
-    public void close() {
+    /**
+     * 获取后台批量写入专用的连接（只由 TaskProgressWriter 的写入线程使用）。
+     * 事务只在这条连接上开启，共享连接上其他线程的语句不会被卷入事务或随之回滚，
+     * 共享连接也始终保持自动提交；两条连接的写入由 SQLite 的写锁串行化（busy_timeout 内等待）
+     */
+    public synchronized Connection getWriterConnection() {
         try {
+            if (writerConnection == null || writerConnection.isClosed()) {
+                writerConnection = openConnection();
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return writerConnection;
+    }
+    
+    /**
+     * 获取缓存的预编译语句，同一条 SQL 只编译一次
+     * <p>语句在多个线程间共享：调用方必须在 synchronized (statement) 块内设置参数、执行并读完结果，且不能关闭它</p>
+     */
+    public synchronized PreparedStatement prepareCached(String sql) throws SQLException {
+        Connection conn = getConnection();
+        PreparedStatement stmt = statementCache.get(sql);
+        if (stmt == null || stmt.isClosed()) {
+            stmt = conn.prepareStatement(sql);
+            statementCache.put(sql, stmt);
+        }
+        return stmt;
+    }
+    
+    public synchronized void close() {
+        try {
+            for (PreparedStatement stmt : statementCache.values()) {
+                stmt.close();
+            }
+            statementCache.clear();
             if (connection != null && !connection.isClosed()) {
                 connection.close();
             }
+            if (writerConnection != null && !writerConnection.isClosed()) {
+                writerConnection.close();
+            }
         } catch (SQLException e) {
             e.printStackTrace();
         }
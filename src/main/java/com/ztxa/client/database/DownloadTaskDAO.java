@@ -1,12 +1,17 @@
 package com.ztxa.client.database;
 
+import com.ztxa.client.model.ChunkManifest;
 import com.ztxa.client.model.DownloadTask;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.HexFormat;
 import java.util.List;
 
 public class DownloadTaskDAO {
+    private static final String SAVE_TASK_SQL = "INSERT OR REPLACE INTO download_tasks " +
+            "(task_id, file_id, file_name, file_path, file_size, downloaded_size, save_path, status, created_at, checksum, speed_limit_kb, updated_at) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, CURRENT_TIMESTAMP)";
     private final DatabaseManager dbManager;
     
     public DownloadTaskDAO() {
@@ -14,40 +19,133 @@ public class DownloadTaskDAO {
     }
     
     public void saveTask(DownloadTask task) {
-        String sql = "INSERT OR REPLACE INTO download_tasks " +
-                     "(task_id, file_id, file_name, file_path, file_size, downloaded_size, save_path, status, created_at, updated_at) " +
-                     "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, CURRENT_TIMESTAMP)";
-        
-        try (PreparedStatement pstmt = dbManager.getConnection().prepareStatement(sql)) {
-            pstmt.setString(1, task.getTaskId());
-            pstmt.setString(2, task.getFileId());
-            pstmt.setString(3, task.getFileName());
-            pstmt.setString(4, task.getFilePath());
-            pstmt.setLong(5, task.getFileSize());
-            pstmt.setLong(6, task.getDownloadedSize());
-            pstmt.setString(7, task.getSavePath());
-            pstmt.setString(8, task.getStatus());
-            pstmt.setLong(9, Long.parseLong(task.getTaskId()));  // created_at 使用 taskId 的时间戳
-            pstmt.executeUpdate();
+        try {
+            PreparedStatement pstmt = dbManager.prepareCached(SAVE_TASK_SQL);
+            synchronized (pstmt) {
+                bindTask(pstmt, task);
+                pstmt.executeUpdate();
+            }
         } catch (SQLException e) {
             System.err.println("Failed to save task: " + e.getMessage());
         }
     }
     
+    private void bindTask(PreparedStatement pstmt, DownloadTask task) throws SQLException {
+        pstmt.setString(1, task.getTaskId());
+        pstmt.setString(2, task.getFileId());
+        pstmt.setString(3, task.getFileName());
+        pstmt.setString(4, task.getFilePath());
+        pstmt.setLong(5, task.getFileSize());
+        pstmt.setLong(6, task.getDownloadedSize());
+        pstmt.setString(7, task.getSavePath());
+        pstmt.setString(8, task.getStatus());
+        pstmt.setLong(9, task.getCreatedAt());
+        pstmt.setString(10, task.getChecksum());
+        pstmt.setInt(11, task.getSpeedLimitKB());
+    }
+    
     public void updateTaskProgress(String taskId, long downloadedSize, String status) {
         String sql = "UPDATE download_tasks SET downloaded_size = ?, status = ?, updated_at = CURRENT_TIMESTAMP " +
                      "WHERE task_id = ?";
         
-        try (PreparedStatement pstmt = dbManager.getConnection().prepareStatement(sql)) {
-            pstmt.setLong(1, downloadedSize);
-            pstmt.setString(2, status);
-            pstmt.setString(3, taskId);
-            pstmt.executeUpdate();
+        try {
+            PreparedStatement pstmt = dbManager.prepareCached(sql);
+            synchronized (pstmt) {
+                pstmt.setLong(1, downloadedSize);
+                pstmt.setString(2, status);
+                pstmt.setString(3, taskId);
+                pstmt.executeUpdate();
+            }
         } catch (SQLException e) {
             System.err.println("Failed to update task: " + e.getMessage());
         }
     }
     
+    /**
+     * 服务端文件内容变化后更新任务的校验和
+     */
+    public void updateTaskChecksum(String taskId, String checksum) {
+        String sql = "UPDATE download_tasks SET checksum = ?, updated_at = CURRENT_TIMESTAMP WHERE task_id = ?";
+        
+        try {
+            PreparedStatement pstmt = dbManager.prepareCached(sql);
+            synchronized (pstmt) {
+                pstmt.setString(1, checksum);
+                pstmt.setString(2, taskId);
+                pstmt.executeUpdate();
+            }
+        } catch (SQLException e) {
+            System.err.println("Failed to update task checksum: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * 保存任务自己的限速（KB/s），0 表示使用设置中的默认值
+     */
+    public void updateTaskSpeedLimit(String taskId, int speedLimitKB) {
+        String sql = "UPDATE download_tasks SET speed_limit_kb = ?, updated_at = CURRENT_TIMESTAMP WHERE task_id = ?";
+        
+        try {
+            PreparedStatement pstmt = dbManager.prepareCached(sql);
+            synchronized (pstmt) {
+                pstmt.setInt(1, speedLimitKB);
+                pstmt.setString(2, taskId);
+                pstmt.executeUpdate();
+            }
+        } catch (SQLException e) {
+            System.err.println("Failed to update task speed limit: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * 在一个事务中批量插入新任务、更新任务进度（由 TaskProgressWriter 调用），先插入后更新。
+     * 事务开在写入专用的连接上，不影响其他线程在共享连接上的语句
+     * @return 是否写入成功
+     */
+    boolean writeTaskBatch(List<DownloadTask> inserts, List<TaskProgressWriter.Progress> updates) {
+        String sql = "UPDATE download_tasks SET downloaded_size = ?, status = ?, updated_at = CURRENT_TIMESTAMP " +
+                     "WHERE task_id = ?";
+        Connection conn = dbManager.getWriterConnection();
+        
+        try {
+            conn.setAutoCommit(false);
+            if (!inserts.isEmpty()) {
+                try (PreparedStatement pstmt = conn.prepareStatement(SAVE_TASK_SQL)) {
+                    for (DownloadTask task : inserts) {
+                        bindTask(pstmt, task);
+                        pstmt.addBatch();
+                    }
+                    pstmt.executeBatch();
+                }
+            }
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                for (TaskProgressWriter.Progress progress : updates) {
+                    pstmt.setLong(1, progress.downloadedSize);
+                    pstmt.setString(2, progress.status);
+                    pstmt.setString(3, progress.taskId);
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+            }
+            conn.commit();
+            return true;
+        } catch (SQLException e) {
+            System.err.println("Failed to update task batch: " + e.getMessage());
+            try {
+                conn.rollback();
+            } catch (SQLException rollbackError) {
+                System.err.println("Failed to rollback task batch: " + rollbackError.getMessage());
+            }
+            return false;
+        } finally {
+            try {
+                conn.setAutoCommit(true);
+            } catch (SQLException e) {
+                System.err.println("Failed to restore auto-commit: " + e.getMessage());
+            }
+        }
+    }
+    
     public List<DownloadTask> getAllTasks() {
         List<DownloadTask> tasks = new ArrayList<>();
         String sql = "SELECT * FROM download_tasks ORDER BY created_at DESC";
@@ -56,42 +154,7 @@ public class DownloadTaskDAO {
              ResultSet rs = stmt.executeQuery(sql)) {
             
             while (rs.next()) {
-                String fileId = rs.getString("file_id");
-                DownloadTask task;
-                
-                if (fileId != null && !fileId.isEmpty()) {
-                    // 使用新构造函数
-                    task = new DownloadTask(
-                        fileId,
-                        rs.getString("file_name"),
-                        rs.getString("file_path"),
-                        rs.getLong("file_size"),
-                        rs.getString("save_path")
-                    );
-                } else {
-                    // 兼容旧数据，使用filePath构造
-                    task = new DownloadTask(
-                        rs.getString("file_name"),
-                        rs.getString("file_path"),
-                        rs.getLong("file_size"),
-                        rs.getString("save_path")
-                    );
-                }
-                
-                // 设置 taskId
-                task.setTaskId(rs.getString("task_id"));
-                task.setDownloadedSize(rs.getLong("downloaded_size"));
-                
-                // 设置状态
-                String status = rs.getString("status");
-                for (DownloadTask.Status s : DownloadTask.Status.values()) {
-                    if (s.getText().equals(status)) {
-                        task.setStatus(s);
-                        break;
-                    }
-                }
-                
-                tasks.add(task);
+                tasks.add(readTask(rs));
             }
         } catch (SQLException e) {
             System.err.println("Failed to get tasks: " + e.getMessage());
@@ -101,7 +164,7 @@ public class DownloadTaskDAO {
     }
     
     /**
-     * 分页查询任务（优化大数据量查询）
+     * 分页查询任务（OFFSET 分页，页码越大越慢，滚动加载请使用 {@link #getTasksAfter}）
      * @param limit 每页数量
      * @param offset 偏移量
      * @return 任务列表
@@ -110,46 +173,16 @@ public class DownloadTaskDAO {
         List<DownloadTask> tasks = new ArrayList<>();
         String sql = "SELECT * FROM download_tasks ORDER BY created_at DESC LIMIT ? OFFSET ?";
         
-        try (PreparedStatement pstmt = dbManager.getConnection().prepareStatement(sql)) {
-            pstmt.setInt(1, limit);
-            pstmt.setInt(2, offset);
-            ResultSet rs = pstmt.executeQuery();
-            
-            while (rs.next()) {
-                String fileId = rs.getString("file_id");
-                DownloadTask task;
-                
-                if (fileId != null && !fileId.isEmpty()) {
-                    // 使用新构造函数
-                    task = new DownloadTask(
-                        fileId,
-                        rs.getString("file_name"),
-                        rs.getString("file_path"),
-                        rs.getLong("file_size"),
-                        rs.getString("save_path")
-                    );
-                } else {
-                    // 兼容旧数据，使用filePath构造
-                    task = new DownloadTask(
-                        rs.getString("file_name"),
-                        rs.getString("file_path"),
-                        rs.getLong("file_size"),
-                        rs.getString("save_path")
-                    );
-                }
-                
-                task.setDownloadedSize(rs.getLong("downloaded_size"));
-                
-                // 设置状态
-                String status = rs.getString("status");
-                for (DownloadTask.Status s : DownloadTask.Status.values()) {
-                    if (s.getText().equals(status)) {
-                        task.setStatus(s);
-                        break;
+        try {
+            PreparedStatement pstmt = dbManager.prepareCached(sql);
+            synchronized (pstmt) {
+                pstmt.setInt(1, limit);
+                pstmt.setInt(2, offset);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        tasks.add(readTask(rs));
                     }
                 }
-                
-                tasks.add(task);
             }
         } catch (SQLException e) {
             System.err.println("Failed to get paged tasks: " + e.getMessage());
@@ -158,6 +191,43 @@ public class DownloadTaskDAO {
         return tasks;
     }
     
+    /**
+     * 游标分页查询任务：按 (created_at, task_id) 倒序，从上一页最后一个任务之后继续，
+     * 直接在 idx_task_created_at_id 索引上定位，耗时与翻到第几页无关
+     * @param last 上一页的最后一个任务，为 null 时查询第一页
+     * @param limit 每页数量
+     * @return 任务列表，少于 limit 条说明已到末尾
+     */
+    public List<DownloadTask> getTasksAfter(DownloadTask last, int limit) {
+        List<DownloadTask> tasks = new ArrayList<>();
+        String sql = last == null
+                ? "SELECT * FROM download_tasks ORDER BY created_at DESC, task_id DESC LIMIT ?"
+                : "SELECT * FROM download_tasks WHERE created_at <= ? AND (created_at < ? OR task_id < ?) "
+                  + "ORDER BY created_at DESC, task_id DESC LIMIT ?";
+        
+        try {
+            PreparedStatement pstmt = dbManager.prepareCached(sql);
+            synchronized (pstmt) {
+                int index = 1;
+                if (last != null) {
+                    pstmt.setLong(index++, last.getCreatedAt());
+                    pstmt.setLong(index++, last.getCreatedAt());
+                    pstmt.setString(index++, last.getTaskId());
+                }
+                pstmt.setInt(index, limit);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        tasks.add(readTask(rs));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Failed to get tasks after cursor: " + e.getMessage());
+        }
+        
+        return tasks;
+    }
+    
     /**
      * 获取任务总数
      * @return 任务总数
@@ -180,44 +250,16 @@ public class DownloadTaskDAO {
     public DownloadTask getTaskByFilePath(String filePath) {
         String sql = "SELECT * FROM download_tasks WHERE file_path = ? OR file_id = ?";
         
-        try (PreparedStatement pstmt = dbManager.getConnection().prepareStatement(sql)) {
-            pstmt.setString(1, filePath);
-            pstmt.setString(2, filePath); // 也通过fileId查找
-            ResultSet rs = pstmt.executeQuery();
-            
-            if (rs.next()) {
-                String fileId = rs.getString("file_id");
-                DownloadTask task;
-                
-                if (fileId != null && !fileId.isEmpty()) {
-                    task = new DownloadTask(
-                        fileId,
-                        rs.getString("file_name"),
-                        rs.getString("file_path"),
-                        rs.getLong("file_size"),
-                        rs.getString("save_path")
-                    );
-                } else {
-                    task = new DownloadTask(
-                        rs.getString("file_name"),
-                        rs.getString("file_path"),
-                        rs.getLong("file_size"),
-                        rs.getString("save_path")
-                    );
-                }
-                
-                task.setDownloadedSize(rs.getLong("downloaded_size"));
-                
-                // 设置状态
-                String status = rs.getString("status");
-                for (DownloadTask.Status s : DownloadTask.Status.values()) {
-                    if (s.getText().equals(status)) {
-                        task.setStatus(s);
-                        break;
+        try {
+            PreparedStatement pstmt = dbManager.prepareCached(sql);
+            synchronized (pstmt) {
+                pstmt.setString(1, filePath);
+                pstmt.setString(2, filePath); // 也通过fileId查找
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (rs.next()) {
+                        return readTask(rs);
                     }
                 }
-                
-                return task;
             }
         } catch (SQLException e) {
             System.err.println("Failed to get task: " + e.getMessage());
@@ -229,22 +271,147 @@ public class DownloadTaskDAO {
     public void deleteTask(String taskId) {
         String sql = "DELETE FROM download_tasks WHERE task_id = ?";
         
-        try (PreparedStatement pstmt = dbManager.getConnection().prepareStatement(sql)) {
-            pstmt.setString(1, taskId);
-            pstmt.executeUpdate();
+        try {
+            PreparedStatement pstmt = dbManager.prepareCached(sql);
+            synchronized (pstmt) {
+                pstmt.setString(1, taskId);
+                pstmt.executeUpdate();
+            }
+            deleteManifest(taskId);
         } catch (SQLException e) {
             System.err.println("Failed to delete task: " + e.getMessage());
         }
     }
     
     public void deleteCompletedTasks() {
+        String manifestSql = "DELETE FROM task_manifests WHERE task_id IN (SELECT task_id FROM download_tasks WHERE status = ?)";
         String sql = "DELETE FROM download_tasks WHERE status = ?";
         
-        try (PreparedStatement pstmt = dbManager.getConnection().prepareStatement(sql)) {
-            pstmt.setString(1, DownloadTask.Status.COMPLETED.getText());
-            pstmt.executeUpdate();
+        try {
+            PreparedStatement manifestStmt = dbManager.prepareCached(manifestSql);
+            synchronized (manifestStmt) {
+                manifestStmt.setString(1, DownloadTask.Status.COMPLETED.getText());
+                manifestStmt.executeUpdate();
+            }
+
+            PreparedStatement pstmt = dbManager.prepareCached(sql);
+            synchronized (pstmt) {
+                pstmt.setString(1, DownloadTask.Status.COMPLETED.getText());
+                pstmt.executeUpdate();
+            }
         } catch (SQLException e) {
             System.err.println("Failed to delete completed tasks: " + e.getMessage());
         }
     }
+    
+    /**
+     * 缓存任务对应文件的分块清单（覆盖旧的清单）
+     */
+    public void saveManifest(String taskId, ChunkManifest manifest) {
+        String sql = "INSERT OR REPLACE INTO task_manifests "
+                   + "(task_id, file_size, chunk_size, algorithm, root_hash, chunk_hashes) VALUES (?, ?, ?, ?, ?, ?)";
+        
+        byte[] hashes = HexFormat.of().parseHex(String.join("", manifest.getChunkHashes()));
+        try {
+            PreparedStatement pstmt = dbManager.prepareCached(sql);
+            synchronized (pstmt) {
+                pstmt.setString(1, taskId);
+                pstmt.setLong(2, manifest.getFileSize());
+                pstmt.setInt(3, manifest.getChunkSize());
+                pstmt.setString(4, manifest.getAlgorithm());
+                pstmt.setString(5, manifest.getRootHash());
+                pstmt.setBytes(6, hashes);
+                pstmt.executeUpdate();
+            }
+        } catch (SQLException e) {
+            System.err.println("Failed to save manifest: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * 读取本地缓存的分块清单
+     * @return 没有缓存时返回 null
+     */
+    public ChunkManifest getManifest(String taskId) {
+        String sql = "SELECT * FROM task_manifests WHERE task_id = ?";
+        
+        try {
+            PreparedStatement pstmt = dbManager.prepareCached(sql);
+            synchronized (pstmt) {
+                pstmt.setString(1, taskId);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (!rs.next()) {
+                        return null;
+                    }
+                    long fileSize = rs.getLong("file_size");
+                    int chunkSize = rs.getInt("chunk_size");
+                    byte[] hashes = rs.getBytes("chunk_hashes");
+                    
+                    // 各块哈希等长，按块数均分
+                    int chunkCount = (int) ((fileSize + chunkSize - 1) / chunkSize);
+                    int hashLength = chunkCount == 0 ? 0 : hashes.length / chunkCount;
+                    HexFormat hex = HexFormat.of();
+                    List<String> chunkHashes = new ArrayList<>(chunkCount);
+                    for (int i = 0; i < chunkCount; i++) {
+                        chunkHashes.add(hex.formatHex(hashes, i * hashLength, (i + 1) * hashLength));
+                    }
+                    return new ChunkManifest(fileSize, chunkSize, rs.getString("algorithm"),
+                        rs.getString("root_hash"), chunkHashes);
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Failed to get manifest: " + e.getMessage());
+        }
+        
+        return null;
+    }
+    
+    private void deleteManifest(String taskId) throws SQLException {
+        PreparedStatement pstmt = dbManager.prepareCached("DELETE FROM task_manifests WHERE task_id = ?");
+        synchronized (pstmt) {
+            pstmt.setString(1, taskId);
+            pstmt.executeUpdate();
+        }
+    }
+    
+    private DownloadTask readTask(ResultSet rs) throws SQLException {
+        String fileId = rs.getString("file_id");
+        DownloadTask task;
+        
+        if (fileId != null && !fileId.isEmpty()) {
+            // 使用新构造函数
+            task = new DownloadTask(
+                fileId,
+                rs.getString("file_name"),
+                rs.getString("file_path"),
+                rs.getLong("file_size"),
+                rs.getString("save_path")
+            );
+        } else {
+            // 兼容旧数据，使用filePath构造
+            task = new DownloadTask(
+                rs.getString("file_name"),
+                rs.getString("file_path"),
+                rs.getLong("file_size"),
+                rs.getString("save_path")
+            );
+        }
+        
+        task.setTaskId(rs.getString("task_id"));
+        task.setCreatedAt(rs.getLong("created_at"));
+        task.setChecksum(rs.getString("checksum"));
+        task.setSpeedLimitKB(rs.getInt("speed_limit_kb"));
+        task.setDownloadedSize(rs.getLong("downloaded_size"));
+        
+        // 设置状态
+        String status = rs.getString("status");
+        for (DownloadTask.Status s : DownloadTask.Status.values()) {
+            if (s.getText().equals(status)) {
+                task.setStatus(s);
+                break;
+            }
+        }
+        
+        return task;
+    }
 }
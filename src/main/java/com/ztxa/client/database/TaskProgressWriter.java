@@ -0,0 +1,140 @@
+package com.ztxa.client.database;
+
+import com.ztxa.client.model.DownloadTask;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 下载进度写回队列
+ * 调用方只提交每个任务的最新进度（同一任务多次提交只保留最后一次），
+ * 后台线程定时或积压达到阈值时在一个事务中批量写入，避免每个任务每秒一次的 SQLite 自动提交。
+ * 新建的任务也经由这里在同一个事务中插入（先于进度更新），一次添加大量任务时 UI 线程不再逐条写库
+ */
+public class TaskProgressWriter {
+    private static final long FLUSH_INTERVAL_MS = 2000;
+    private static final int FLUSH_THRESHOLD = 200;
+    private static TaskProgressWriter instance;
+
+    private final DownloadTaskDAO taskDAO;
+    private final Map<String, Progress> pending = new ConcurrentHashMap<>();
+    private final Map<String, DownloadTask> pendingInserts = new ConcurrentHashMap<>();
+    private final AtomicBoolean thresholdFlushQueued = new AtomicBoolean(false);
+    private final ScheduledExecutorService flusher;
+
+    private TaskProgressWriter() {
+        this.taskDAO = new DownloadTaskDAO();
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "task-progress-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        // 兜底：非正常退出（如 Ctrl+C）时也把积压的进度写入
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "task-progress-writer-shutdown"));
+    }
+
+    public static synchronized TaskProgressWriter getInstance() {
+        if (instance == null) {
+            instance = new TaskProgressWriter();
+        }
+        return instance;
+    }
+
+    /**
+     * 提交任务的最新进度，覆盖尚未写入的旧值
+     */
+    public void submit(String taskId, long downloadedSize, String status) {
+        pending.put(taskId, new Progress(taskId, downloadedSize, status));
+        flushIfBacklogged();
+    }
+
+    /**
+     * 提交新建的任务，下一次写入时插入数据库
+     */
+    public void submitNew(List<DownloadTask> tasks) {
+        for (DownloadTask task : tasks) {
+            pendingInserts.put(task.getTaskId(), task);
+        }
+        flushIfBacklogged();
+    }
+
+    /**
+     * 丢弃任务尚未写入的插入和进度，删除任务记录前调用，避免删除后又被写回
+     */
+    public synchronized void discard(String taskId) {
+        pendingInserts.remove(taskId);
+        pending.remove(taskId);
+    }
+
+    private void flushIfBacklogged() {
+        if (pending.size() + pendingInserts.size() >= FLUSH_THRESHOLD && thresholdFlushQueued.compareAndSet(false, true)) {
+            flusher.execute(() -> {
+                thresholdFlushQueued.set(false);
+                flush();
+            });
+        }
+    }
+
+    /**
+     * 把积压的新任务和进度在一个事务中写入数据库
+     */
+    public synchronized void flush() {
+        if (pending.isEmpty() && pendingInserts.isEmpty()) {
+            return;
+        }
+        List<DownloadTask> inserts = drain(pendingInserts);
+        List<Progress> batch = drain(pending);
+        if (!taskDAO.writeTaskBatch(inserts, batch)) {
+            // 写入失败时放回队列，期间提交的新值优先
+            for (DownloadTask task : inserts) {
+                pendingInserts.putIfAbsent(task.getTaskId(), task);
+            }
+            for (Progress progress : batch) {
+                pending.putIfAbsent(progress.taskId, progress);
+            }
+        }
+    }
+
+    private static <T> List<T> drain(Map<String, T> map) {
+        List<T> drained = new ArrayList<>(map.size());
+        for (String taskId : map.keySet()) {
+            T value = map.remove(taskId);
+            if (value != null) {
+                drained.add(value);
+            }
+        }
+        return drained;
+    }
+
+    /**
+     * 停止后台线程并写入剩余进度，程序退出前调用
+     */
+    public void shutdown() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    static class Progress {
+        final String taskId;
+        final long downloadedSize;
+        final String status;
+
+        Progress(String taskId, long downloadedSize, String status) {
+            this.taskId = taskId;
+            this.downloadedSize = downloadedSize;
+            this.status = status;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.ztxa.client.model;
+
+import java.util.List;
+
+/**
+ * 服务端提供的文件分块清单：固定大小分块的哈希列表及其 Merkle 根
+ * 用于续传前校验本地已有的数据，只重新下载损坏的分块
+ */
+public class ChunkManifest {
+    private long fileSize;        // 文件大小
+    private int chunkSize;        // 分块大小（最后一块可能更小）
+    private String algorithm;     // 哈希算法（如 SHA-256）
+    private String rootHash;      // Merkle 根，文件内容变化时随之变化
+    private List<String> chunkHashes;  // 每块的十六进制哈希
+
+    public ChunkManifest() {
+    }
+
+    public ChunkManifest(long fileSize, int chunkSize, String algorithm, String rootHash, List<String> chunkHashes) {
+        this.fileSize = fileSize;
+        this.chunkSize = chunkSize;
+        this.algorithm = algorithm;
+        this.rootHash = rootHash;
+        this.chunkHashes = chunkHashes;
+    }
+
+    /**
+     * 清单是否完整可用：各字段齐全，分块哈希的数量与文件大小、分块大小一致，且都是等长的十六进制串
+     */
+    public boolean isComplete() {
+        if (fileSize < 0 || chunkSize <= 0 || algorithm == null || rootHash == null || chunkHashes == null
+                || chunkHashes.size() != (fileSize + chunkSize - 1) / chunkSize) {
+            return false;
+        }
+        for (String hash : chunkHashes) {
+            if (hash == null || hash.isEmpty() || hash.length() % 2 != 0 || hash.length() != chunkHashes.get(0).length()) {
+                return false;
+            }
+            for (int i = 0; i < hash.length(); i++) {
+                if (Character.digit(hash.charAt(i), 16) < 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    public int getChunkCount() {
+        return chunkHashes == null ? 0 : chunkHashes.size();
+    }
+
+    public long getChunkStart(int index) {
+        return (long) index * chunkSize;
+    }
+
+    public long getChunkEnd(int index) {
+        return Math.min(getChunkStart(index + 1), fileSize);
+    }
+
+    public String getChunkHash(int index) {
+        return chunkHashes.get(index);
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public void setFileSize(long fileSize) {
+        this.fileSize = fileSize;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    public void setAlgorithm(String algorithm) {
+        this.algorithm = algorithm;
+    }
+
+    public String getRootHash() {
+        return rootHash;
+    }
+
+    public void setRootHash(String rootHash) {
+        this.rootHash = rootHash;
+    }
+
+    public List<String> getChunkHashes() {
+        return chunkHashes;
+    }
+
+    public void setChunkHashes(List<String> chunkHashes) {
+        this.chunkHashes = chunkHashes;
+    }
+}
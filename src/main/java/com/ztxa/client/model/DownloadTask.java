@@ -2,19 +2,40 @@ package com.ztxa.client.model;
 
 import javafx.beans.property.*;
 
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
 public class DownloadTask {
+    // 等待发布到 JavaFX 属性的任务，由 UI 每帧统一取出（见 publishPendingUpdates）
+    private static final Queue<DownloadTask> PENDING_UPDATES = new ConcurrentLinkedQueue<>();
+
     private String taskId;            // 任务唯一ID（时间戳）
+    private long createdAt;           // 创建时间（毫秒时间戳，分页游标）
     private final StringProperty fileName;
     private final LongProperty fileSize;
     private final LongProperty downloadedSize;
     private final DoubleProperty progress;
     private final StringProperty status;
     private final StringProperty speed;
+    // 下载线程只写入以下字段，JavaFX 属性只在 FX 线程上更新
+    private final AtomicLong downloadedBytes = new AtomicLong(0);
+    private volatile String statusText = Status.WAITING.getText();
+    private volatile String speedText = "0 KB/s";
+    private final AtomicBoolean updatePending = new AtomicBoolean(false);
     private String fileId;        // 文件ID（用于下载）
     private String filePath;      // 文件路径（用于显示）
     private String savePath;
+    private String checksum;      // 服务端公布的校验和（可选，用于下载后校验）
+    private volatile int speedLimitKB;  // 单个任务限速（KB/s），0 表示使用设置中的默认值
     private volatile boolean paused;
     private volatile boolean cancelled;
+    // 暂停时下载线程阻塞在 resumed 上，继续或取消时唤醒（ReentrantLock 不会钉住虚拟线程）
+    private final ReentrantLock pauseLock = new ReentrantLock();
+    private final Condition resumed = pauseLock.newCondition();
     
     public enum Status {
         WAITING("等待中"),
@@ -36,14 +57,15 @@ public class DownloadTask {
     }
 
     public DownloadTask(String fileName, String filePath, long fileSize, String savePath) {
-        this.taskId = String.valueOf(System.currentTimeMillis());  // 生成时间戳作为 taskId
+        this.createdAt = System.currentTimeMillis();
+        this.taskId = String.valueOf(createdAt);  // 生成时间戳作为 taskId
         this.fileName = new SimpleStringProperty(fileName);
         this.filePath = filePath;
         this.fileSize = new SimpleLongProperty(fileSize);
         this.downloadedSize = new SimpleLongProperty(0);
         this.progress = new SimpleDoubleProperty(0.0);
-        this.status = new SimpleStringProperty(Status.WAITING.getText());
-        this.speed = new SimpleStringProperty("0 KB/s");
+        this.status = new SimpleStringProperty(statusText);
+        this.speed = new SimpleStringProperty(speedText);
         this.savePath = savePath;
         this.paused = false;
         this.cancelled = false;
@@ -51,15 +73,16 @@ public class DownloadTask {
     
     // 新构造函数：支持 fileId 和 filePath
     public DownloadTask(String fileId, String fileName, String filePath, long fileSize, String savePath) {
-        this.taskId = String.valueOf(System.currentTimeMillis());
+        this.createdAt = System.currentTimeMillis();
+        this.taskId = String.valueOf(createdAt);
         this.fileId = fileId;
         this.fileName = new SimpleStringProperty(fileName);
         this.filePath = filePath;
         this.fileSize = new SimpleLongProperty(fileSize);
         this.downloadedSize = new SimpleLongProperty(0);
         this.progress = new SimpleDoubleProperty(0.0);
-        this.status = new SimpleStringProperty(Status.WAITING.getText());
-        this.speed = new SimpleStringProperty("0 KB/s");
+        this.status = new SimpleStringProperty(statusText);
+        this.speed = new SimpleStringProperty(speedText);
         this.savePath = savePath;
         this.paused = false;
         this.cancelled = false;
@@ -78,6 +101,14 @@ public class DownloadTask {
         this.taskId = taskId;
     }
 
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(long createdAt) {
+        this.createdAt = createdAt;
+    }
+
     public String getFileName() {
         return fileName.get();
     }
@@ -107,19 +138,12 @@ public class DownloadTask {
     }
 
     public long getDownloadedSize() {
-        return downloadedSize.get();
+        return downloadedBytes.get();
     }
 
     public void setDownloadedSize(long size) {
-        if (javafx.application.Platform.isFxApplicationThread()) {
-            this.downloadedSize.set(size);
-            this.progress.set(getFileSize() > 0 ? (double) size / getFileSize() : 0.0);
-        } else {
-            javafx.application.Platform.runLater(() -> {
-                this.downloadedSize.set(size);
-                this.progress.set(getFileSize() > 0 ? (double) size / getFileSize() : 0.0);
-            });
-        }
+        downloadedBytes.set(size);
+        markUpdated();
     }
 
     public LongProperty downloadedSizeProperty() {
@@ -135,15 +159,12 @@ public class DownloadTask {
     }
 
     public String getStatus() {
-        return status.get();
+        return statusText;
     }
 
     public void setStatus(Status status) {
-        if (javafx.application.Platform.isFxApplicationThread()) {
-            this.status.set(status.getText());
-        } else {
-            javafx.application.Platform.runLater(() -> this.status.set(status.getText()));
-        }
+        this.statusText = status.getText();
+        markUpdated();
     }
 
     public StringProperty statusProperty() {
@@ -151,31 +172,101 @@ public class DownloadTask {
     }
 
     public String getSpeed() {
-        return speed.get();
+        return speedText;
     }
 
     public void setSpeed(String speed) {
-        if (javafx.application.Platform.isFxApplicationThread()) {
-            this.speed.set(speed);
-        } else {
-            javafx.application.Platform.runLater(() -> this.speed.set(speed));
-        }
+        this.speedText = speed;
+        markUpdated();
     }
 
     public StringProperty speedProperty() {
         return speed;
     }
 
+    /**
+     * FX 线程上的修改立即发布；其他线程只登记一次，等下一帧由 publishPendingUpdates 统一发布
+     */
+    private void markUpdated() {
+        if (javafx.application.Platform.isFxApplicationThread()) {
+            publish();
+        } else if (updatePending.compareAndSet(false, true)) {
+            PENDING_UPDATES.add(this);
+        }
+    }
+
+    private void publish() {
+        // 先清除标记再读取字段，发布期间的新修改会重新登记到下一帧
+        updatePending.set(false);
+        long size = downloadedBytes.get();
+        downloadedSize.set(size);
+        progress.set(getFileSize() > 0 ? (double) size / getFileSize() : 0.0);
+        status.set(statusText);
+        speed.set(speedText);
+    }
+
+    /**
+     * 把下载线程登记的修改发布到 JavaFX 属性，只能在 FX 线程上调用（每帧一次）
+     * @return 本次发布的任务数
+     */
+    public static int publishPendingUpdates() {
+        int count = 0;
+        DownloadTask task;
+        while ((task = PENDING_UPDATES.poll()) != null) {
+            task.publish();
+            count++;
+        }
+        return count;
+    }
+
     public String getSavePath() {
         return savePath;
     }
 
+    public String getChecksum() {
+        return checksum;
+    }
+
+    public void setChecksum(String checksum) {
+        this.checksum = checksum;
+    }
+
+    public int getSpeedLimitKB() {
+        return speedLimitKB;
+    }
+
+    public void setSpeedLimitKB(int speedLimitKB) {
+        this.speedLimitKB = speedLimitKB;
+    }
+
     public boolean isPaused() {
         return paused;
     }
 
     public void setPaused(boolean paused) {
-        this.paused = paused;
+        pauseLock.lock();
+        try {
+            this.paused = paused;
+            if (!paused) {
+                resumed.signalAll();
+            }
+        } finally {
+            pauseLock.unlock();
+        }
+    }
+    
+    /**
+     * 阻塞当前下载线程，直到任务被继续或取消
+     */
+    public void awaitResume() throws InterruptedException {
+        pauseLock.lock();
+        try {
+            while (paused && !cancelled) {
+                resumed.await();
+            }
+        } finally {
+            pauseLock.unlock();
+        }
     }
 
     public boolean isCancelled() {
@@ -183,6 +274,12 @@ public class DownloadTask {
     }
 
     public void setCancelled(boolean cancelled) {
-        this.cancelled = cancelled;
+        pauseLock.lock();
+        try {
+            this.cancelled = cancelled;
+            resumed.signalAll();
+        } finally {
+            pauseLock.unlock();
+        }
     }
 }
@@ -0,0 +1,271 @@
+package com.ztxa.client.service;
+
+import com.ztxa.client.config.AppConfig;
+import com.ztxa.client.model.DownloadTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 客户端下载限速
+ * 所有下载共用一个全局令牌桶，每个任务另有自己的令牌桶（分段下载的各个连接共用任务的桶），
+ * 读循环每读到一批数据就向两个桶预约，按欠账等待到令牌补足后再继续读，TCP 背压让服务端随之减速。
+ *
+ * <p>令牌桶容量只有约 50ms 的流量，每次读取也限制在约 20ms 的流量以内，因此不会出现长时间停顿后的突发。
+ * 全局令牌按预约先后分配给正在读取的任务，空闲或受单任务上限约束的任务用不到的带宽自然留给其他任务。</p>
+ *
+ * <p>全局上限可以按时间段设置（见 {@link AppConfig#getSpeedLimitSchedule()}），当前时间段每秒重新计算一次，
+ * 修改设置后一秒内生效。</p>
+ */
+public class BandwidthLimiter {
+    private static final Logger logger = LoggerFactory.getLogger(BandwidthLimiter.class);
+    private static final int SLICES_PER_SECOND = 50; // 每次读取最多约 20ms 的流量
+    private static final int MIN_READ_SIZE = 4096;
+    private static final long RATE_REFRESH_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm");
+    // 已经警告过的无效时间段，避免每秒重复记录
+    private static final Set<String> warnedRules = ConcurrentHashMap.newKeySet();
+
+    private static BandwidthLimiter instance;
+
+    private final TokenBucket global = new TokenBucket();
+    private final Map<DownloadTask, TokenBucket> taskBuckets = new ConcurrentHashMap<>();
+    private volatile long globalRefreshedAt = System.nanoTime() - RATE_REFRESH_NANOS;
+
+    private BandwidthLimiter() {
+    }
+
+    public static synchronized BandwidthLimiter getInstance() {
+        if (instance == null) {
+            instance = new BandwidthLimiter();
+        }
+        return instance;
+    }
+
+    /**
+     * 本次最多读取的字节数：不限速时为整个缓冲区，否则约为 20ms 的流量
+     */
+    public int readSize(DownloadTask task, int bufferLength) {
+        long rate = effectiveRate(task);
+        if (rate <= 0) {
+            return bufferLength;
+        }
+        return (int) Math.min(bufferLength, Math.max(MIN_READ_SIZE, rate / SLICES_PER_SECOND));
+    }
+
+    /**
+     * 记入已读取的字节数，超出全局或任务上限时阻塞到令牌补足
+     */
+    public void acquire(DownloadTask task, long bytes) {
+        refreshGlobalRate();
+        long waitNanos = global.reserve(bytes);
+        TokenBucket taskBucket = taskBucket(task);
+        if (taskBucket != null) {
+            waitNanos = Math.max(waitNanos, taskBucket.reserve(bytes));
+        }
+        if (waitNanos > 0) {
+            long deadline = System.nanoTime() + waitNanos;
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > 0 && !task.isCancelled()) {
+                LockSupport.parkNanos(remaining);
+            }
+        }
+    }
+
+    /**
+     * 任务结束时释放它的令牌桶
+     */
+    public void release(DownloadTask task) {
+        taskBuckets.remove(task);
+    }
+
+    /**
+     * 当前生效的全局上限（字节/秒），0 表示不限速
+     */
+    public long getGlobalRate() {
+        refreshGlobalRate();
+        return global.getRate();
+    }
+
+    private long effectiveRate(DownloadTask task) {
+        long globalRate = getGlobalRate();
+        long taskRate = taskRate(task);
+        if (globalRate <= 0) {
+            return taskRate;
+        }
+        return taskRate <= 0 ? globalRate : Math.min(globalRate, taskRate);
+    }
+
+    private TokenBucket taskBucket(DownloadTask task) {
+        long rate = taskRate(task);
+        if (rate <= 0) {
+            taskBuckets.remove(task);
+            return null;
+        }
+        TokenBucket bucket = taskBuckets.computeIfAbsent(task, k -> new TokenBucket());
+        bucket.setRate(rate);
+        return bucket;
+    }
+
+    /**
+     * 任务自己的上限优先，未设置时使用设置中的单任务默认上限
+     */
+    private long taskRate(DownloadTask task) {
+        int limitKB = task.getSpeedLimitKB() > 0 ? task.getSpeedLimitKB() : AppConfig.getInstance().getTaskSpeedLimitKB();
+        return limitKB * 1024L;
+    }
+
+    private void refreshGlobalRate() {
+        long now = System.nanoTime();
+        if (now - globalRefreshedAt < RATE_REFRESH_NANOS) {
+            return;
+        }
+        globalRefreshedAt = now;
+        AppConfig config = AppConfig.getInstance();
+        long rate = scheduledLimitKB(config.getSpeedLimitSchedule(), LocalTime.now(), config.getSpeedLimitKB()) * 1024L;
+        if (rate != global.getRate()) {
+            logger.info("全局限速调整为: {}", rate > 0 ? rate / 1024 + " KB/s" : "不限速");
+            global.setRate(rate);
+        }
+    }
+
+    /**
+     * 按时间段计划取当前的上限。计划格式为 "HH:mm-HH:mm=KB;..."，结束时间早于开始时间表示跨过午夜，
+     * KB 为 0 表示该时间段不限速；没有匹配的时间段时使用 defaultKB。
+     * 无效的时间段被忽略，每个只记录一次警告（每秒都会重新计算）
+     */
+    static int scheduledLimitKB(String schedule, LocalTime now, int defaultKB) {
+        if (schedule == null || schedule.isBlank()) {
+            return defaultKB;
+        }
+        for (String rule : schedule.split(";")) {
+            rule = rule.trim();
+            if (rule.isEmpty()) {
+                continue;
+            }
+            ScheduleRule parsed;
+            try {
+                parsed = ScheduleRule.parse(rule);
+            } catch (RuntimeException e) {
+                if (warnedRules.add(rule)) {
+                    logger.warn("忽略无效的限速时间段: {}", rule);
+                }
+                continue;
+            }
+            if (parsed.contains(now)) {
+                return parsed.limitKB;
+            }
+        }
+        return defaultKB;
+    }
+
+    /**
+     * 检查时间段计划能否解析（设置界面保存前调用），每个时间段的时间必须是有效的 HH:mm，上限不能为负数
+     */
+    public static boolean isValidSchedule(String schedule) {
+        if (schedule == null || schedule.isBlank()) {
+            return true;
+        }
+        for (String rule : schedule.split(";")) {
+            if (rule.isBlank()) {
+                continue;
+            }
+            try {
+                ScheduleRule.parse(rule.trim());
+            } catch (RuntimeException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 一个限速时间段 "HH:mm-HH:mm=KB"
+     */
+    private static class ScheduleRule {
+        final LocalTime from;
+        final LocalTime to;
+        final int limitKB;
+
+        private ScheduleRule(LocalTime from, LocalTime to, int limitKB) {
+            this.from = from;
+            this.to = to;
+            this.limitKB = limitKB;
+        }
+
+        /**
+         * @throws RuntimeException 格式不对、时间无效或上限为负数
+         */
+        static ScheduleRule parse(String rule) {
+            int eq = rule.indexOf('=');
+            int dash = rule.indexOf('-');
+            LocalTime from = LocalTime.parse(rule.substring(0, dash).trim(), TIME_FORMAT);
+            LocalTime to = LocalTime.parse(rule.substring(dash + 1, eq).trim(), TIME_FORMAT);
+            int limitKB = Integer.parseInt(rule.substring(eq + 1).trim());
+            if (limitKB < 0) {
+                throw new IllegalArgumentException("Negative speed limit: " + rule);
+            }
+            return new ScheduleRule(from, to, limitKB);
+        }
+
+        boolean contains(LocalTime now) {
+            return from.isBefore(to)
+                ? !now.isBefore(from) && now.isBefore(to)
+                : !now.isBefore(from) || now.isBefore(to);
+        }
+    }
+
+    /**
+     * 令牌桶：令牌可以预约成负数（欠账），调用方按返回的时间等待，先预约的先拿到带宽
+     */
+    private static class TokenBucket {
+        private long rate; // 字节/秒，0 表示不限速
+        private double tokens;
+        private long refilledAt = System.nanoTime();
+
+        synchronized long getRate() {
+            return rate;
+        }
+
+        synchronized void setRate(long rate) {
+            if (rate == this.rate) {
+                return;
+            }
+            refill();
+            this.rate = rate;
+            tokens = Math.min(tokens, capacity());
+        }
+
+        /**
+         * @return 需要等待的纳秒数
+         */
+        synchronized long reserve(long bytes) {
+            if (rate <= 0) {
+                return 0;
+            }
+            refill();
+            tokens -= bytes;
+            return tokens >= 0 ? 0 : (long) (-tokens * 1_000_000_000L / rate);
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            if (rate > 0) {
+                tokens = Math.min(capacity(), tokens + (now - refilledAt) * rate / 1_000_000_000.0);
+            }
+            refilledAt = now;
+        }
+
+        private double capacity() {
+            return Math.max(MIN_READ_SIZE, rate / 20.0); // 约 50ms 的流量
+        }
+    }
+}
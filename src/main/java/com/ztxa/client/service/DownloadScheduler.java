@@ -0,0 +1,326 @@
+package com.ztxa.client.service;
+
+import com.ztxa.client.config.AppConfig;
+import com.ztxa.client.model.DownloadTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 下载调度器
+ * 等待中的任务保存在优先队列中（用户置顶的优先，其次按入队顺序），运行中的任务数直接由名额集合维护，
+ * 由下载线程结束回调驱动启动下一个任务，不再在每次事件时遍历整个任务列表。
+ *
+ * <p>所有方法都在调度器锁内执行，入队、出队、置顶均为 O(log n)，可以安全地在 UI 线程和下载线程中调用。
+ * 锁内不访问文件系统：是否合并批量下载只看文件大小，目标文件是否已存在由下载线程检查。
+ * 下载线程是虚拟线程，使用 ReentrantLock 而不是 synchronized：在 synchronized 中阻塞（例如等待日志锁）
+ * 会占住载体线程，所有载体线程都被占住时整个下载会卡死。</p>
+ *
+ * <p>队首连续的小文件合并成一个批量下载，整批只占用一个并发名额，名额由批次本身持有，
+ * 批中所有任务都结束时才释放；暂停、取消其中的任务不会让出名额，大量小文件不再各自占用线程和连接。</p>
+ */
+public class DownloadScheduler {
+    private static final Logger logger = LoggerFactory.getLogger(DownloadScheduler.class);
+
+    private final FileDownloadService downloadService;
+    private final FileDownloadService.DownloadProgressListener trackingListener;
+
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>();
+    private final Map<DownloadTask, Entry> queued = new HashMap<>();
+    // 占用并发名额的任务或批次（暂停中的单个任务会让出名额）
+    private final Set<Object> slotHolders = new HashSet<>();
+    // 批量下载中尚未结束的任务所属的批次
+    private final Map<DownloadTask, Batch> batchMembers = new HashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private long sequence = 0;
+    private int topPriority = 0;
+
+    public DownloadScheduler(FileDownloadService downloadService, FileDownloadService.DownloadProgressListener listener) {
+        this.downloadService = downloadService;
+        this.trackingListener = new FileDownloadService.DownloadProgressListener() {
+            @Override
+            public void onProgress(DownloadTask task) {
+                listener.onProgress(task);
+            }
+
+            @Override
+            public void onCompleted(DownloadTask task) {
+                listener.onCompleted(task);
+            }
+
+            @Override
+            public void onError(DownloadTask task, Exception e) {
+                listener.onError(task, e);
+            }
+
+            @Override
+            public void onFinished(DownloadTask task) {
+                release(task);
+                listener.onFinished(task);
+            }
+        };
+    }
+
+    /**
+     * 任务加入等待队列，有空闲名额时立即开始
+     */
+    public void enqueue(DownloadTask task) {
+        lock.lock();
+        try {
+            enqueue(task, 0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 多个任务按顺序加入等待队列，只加锁一次，全部入队后再调度一次，
+     * 一次添加的小文件可以直接合并成批量下载
+     */
+    public void enqueueAll(List<DownloadTask> tasks) {
+        lock.lock();
+        try {
+            for (DownloadTask task : tasks) {
+                offer(task, 0);
+            }
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 把等待中的任务移到队列最前面
+     */
+    public void boost(DownloadTask task) {
+        lock.lock();
+        try {
+            Entry entry = queued.remove(task);
+            if (entry != null) {
+                entry.removed = true;
+                enqueue(task, ++topPriority);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 暂停任务：等待中的任务直接移出队列，运行中的任务阻塞在暂停点并让出并发名额。
+     * 批量下载中的任务不让出名额（批量连接仍在传输其他文件），轮到它时跳过
+     */
+    public void pause(DownloadTask task) {
+        lock.lock();
+        try {
+            task.setPaused(true);
+            Entry entry = queued.remove(task);
+            if (entry != null) {
+                entry.removed = true;
+                task.setStatus(DownloadTask.Status.PAUSED);
+                return;
+            }
+            if (slotHolders.remove(task)) {
+                dispatch();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 继续任务：线程仍在等待的直接唤醒并重新占用名额（可能暂时超过上限），否则重新排队。
+     * 还在批量下载中的任务继续使用批次的名额
+     */
+    public void resume(DownloadTask task) {
+        lock.lock();
+        try {
+            task.setPaused(false);
+            if (downloadService.isRunning(task)) {
+                if (!batchMembers.containsKey(task)) {
+                    slotHolders.add(task);
+                }
+            } else {
+                task.setStatus(DownloadTask.Status.WAITING);
+                enqueue(task, 0);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 取消任务：从队列中移除并关闭正在进行的连接
+     */
+    public void cancel(DownloadTask task) {
+        lock.lock();
+        try {
+            Entry entry = queued.remove(task);
+            if (entry != null) {
+                entry.removed = true;
+            }
+            downloadService.cancelDownload(task);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueuedCount() {
+        lock.lock();
+        try {
+            return queued.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getRunningCount() {
+        lock.lock();
+        try {
+            return slotHolders.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void enqueue(DownloadTask task, int priority) {
+        offer(task, priority);
+        dispatch();
+    }
+
+    private void offer(DownloadTask task, int priority) {
+        if (queued.containsKey(task) || downloadService.isRunning(task)) {
+            return;
+        }
+        Entry entry = new Entry(task, priority, sequence++);
+        queue.add(entry);
+        queued.put(task, entry);
+    }
+
+    private void release(DownloadTask task) {
+        lock.lock();
+        try {
+            Batch batch = batchMembers.remove(task);
+            if (batch != null) {
+                // 批中最后一个任务结束时释放整批的名额
+                if (--batch.remaining == 0 && slotHolders.remove(batch)) {
+                    dispatch();
+                }
+                return;
+            }
+            if (slotHolders.remove(task)) {
+                dispatch();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void dispatch() {
+        int maxConcurrent = AppConfig.getInstance().getMaxConcurrentDownloads();
+        while (slotHolders.size() < maxConcurrent) {
+            Entry entry = queue.poll();
+            if (entry == null) {
+                return;
+            }
+            if (entry.removed) {
+                continue;
+            }
+            queued.remove(entry.task);
+            if (downloadService.isBatchCandidate(entry.task) && dispatchBatch(entry.task)) {
+                continue;
+            }
+            slotHolders.add(entry.task);
+            if (!downloadService.downloadFile(entry.task, trackingListener)) {
+                slotHolders.remove(entry.task);
+            }
+        }
+        logger.debug("调度完成: 运行中={}, 等待中={}", slotHolders.size(), queued.size());
+    }
+
+    /**
+     * 从队首继续取出紧随其后的小文件，与 first 一起作为一个批量下载启动
+     * @return 是否以批量方式启动；队首后面没有可合并的小文件时返回 false
+     */
+    private boolean dispatchBatch(DownloadTask first) {
+        List<DownloadTask> batch = new ArrayList<>();
+        batch.add(first);
+        while (batch.size() < FileDownloadService.MAX_BATCH_FILES) {
+            Entry next = queue.peek();
+            if (next == null) {
+                break;
+            }
+            if (next.removed) {
+                queue.poll();
+                continue;
+            }
+            if (!downloadService.isBatchCandidate(next.task)) {
+                break;
+            }
+            queue.poll();
+            queued.remove(next.task);
+            batch.add(next.task);
+        }
+        if (batch.size() == 1) {
+            return false;
+        }
+
+        // 先登记批次再提交：任务的结束回调需要调度器锁，一定在登记之后执行
+        Batch holder = new Batch(batch.size());
+        slotHolders.add(holder);
+        batch.forEach(task -> batchMembers.put(task, holder));
+        List<DownloadTask> accepted = downloadService.downloadBatch(batch, trackingListener);
+        if (accepted.size() < batch.size()) {
+            // 已在执行中的任务不会有本批次的结束回调
+            batch.stream().filter(task -> !accepted.contains(task)).forEach(batchMembers::remove);
+            holder.remaining = accepted.size();
+            if (accepted.isEmpty()) {
+                slotHolders.remove(holder);
+            }
+        }
+        logger.debug("合并批量下载: {} 个小文件", accepted.size());
+        return true;
+    }
+
+    /**
+     * 批量下载占用的名额，remaining 为尚未结束的任务数
+     */
+    private static class Batch {
+        int remaining;
+
+        Batch(int remaining) {
+            this.remaining = remaining;
+        }
+    }
+
+    /**
+     * 队列元素：优先级高的在前，同优先级按入队顺序；被移除的元素延迟到出队时丢弃
+     */
+    private static class Entry implements Comparable<Entry> {
+        final DownloadTask task;
+        final int priority;
+        final long sequence;
+        boolean removed;
+
+        Entry(DownloadTask task, int priority, long sequence) {
+            this.task = task;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            if (priority != other.priority) {
+                return Integer.compare(other.priority, priority);
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
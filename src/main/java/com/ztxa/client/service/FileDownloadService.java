@@ -1,46 +1,162 @@
 package com.ztxa.client.service;
 
 import com.ztxa.client.config.AppConfig;
+import com.ztxa.client.database.DownloadTaskDAO;
+import com.ztxa.client.model.ChunkManifest;
 import com.ztxa.client.model.DownloadTask;
+import com.ztxa.client.model.FileInfo;
 import com.ztxa.client.util.BytesDecimalismUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
 
 public class FileDownloadService {
     private static final Logger logger = LoggerFactory.getLogger(FileDownloadService.class);
-    private static final int BUFFER_SIZE = 65536; // 64KB 缓冲区，减少读写频率并适应高速网络
+    // 每次读取的上限，即连接池中每条连接的读缓冲区大小
+    private static final int READ_BUFFER_SIZE = TcpConnectionPool.READ_BUFFER_SIZE;
+    private static final long MIN_SEGMENT_SIZE = 8L * 1024 * 1024; // 每段至少 8MB，小文件不值得多开连接
+    // 不超过该大小、且不需要续传的文件可以合并到一次批量请求中下载
+    public static final long BATCH_FILE_MAX_SIZE = 1024 * 1024;
+    public static final int MAX_BATCH_FILES = 500;
+    private static final int MAX_BATCH_REQUEST_BYTES = 60 * 1024; // 服务端单个请求最大 64KB
+    private static final byte COMMAND_DOWNLOAD = 0x20;
+    private static final byte COMMAND_BATCH = 0x21;
+    private static final int VERIFY_PARALLELISM = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
     
-    // 存储每个任务的 Socket，用于取消时关闭
-    private final Map<DownloadTask, Socket> activeSockets = new ConcurrentHashMap<>();
+    // 存储每个任务的 Socket（分段下载时一个任务对应多个连接），用于取消时关闭
+    private final Map<DownloadTask, Set<Socket>> activeSockets = new ConcurrentHashMap<>();
+    // 正在执行的任务（包括暂停中、线程仍阻塞等待继续的任务）
+    private final Set<DownloadTask> runningTasks = ConcurrentHashMap.newKeySet();
     
-    public void downloadFile(DownloadTask task, DownloadProgressListener listener) {
+    // 每个传输（以及每个分段）运行在独立的虚拟线程上，排队的任务再多也不会占用平台线程栈
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+        Thread.ofVirtual().name("download-", 0).factory());
+    
+    // 数据连接池（应用共用，退出时关闭）：带结束位置的请求读完后连接归还，下一个文件或分段直接复用
+    private final TcpConnectionPool connectionPool = TcpConnectionPool.getInstance();
+    private final BandwidthLimiter bandwidthLimiter = BandwidthLimiter.getInstance();
+    
+    // 分块清单：从服务端获取，缓存在本地数据库中；使用应用共用的 HTTP 客户端，由应用退出时关闭
+    private final FileListService fileListService;
+    private final DownloadTaskDAO taskDAO = new DownloadTaskDAO();
+    
+    public FileDownloadService(FileListService fileListService) {
+        this.fileListService = fileListService;
+    }
+    
+    /**
+     * 启动下载
+     * @return 是否已提交执行；任务已在执行中时返回 false
+     */
+    public boolean downloadFile(DownloadTask task, DownloadProgressListener listener) {
         logger.info("[下载入口] 启动下载线程: fileName={}, fileId={}, fileSize={}, status={}", 
             task.getFileName(), task.getFileId(), task.getFileSize(), task.getStatus());
         
-        new Thread(() -> {
-            try {
-                logger.debug("[下载线程] 线程已启动，准备调用 doDownload(): {}", task.getFileName());
-                doDownload(task, listener);
-            } catch (Exception e) {
+        if (!runningTasks.add(task)) {
+            logger.warn("[下载入口] 任务已在执行中，忽略重复启动: {}", task.getFileName());
+            return false;
+        }
+        
+        executor.execute(() -> runDownload(task, listener));
+        
+        logger.debug("[下载入口] 下载线程已提交: {}", task.getFileName());
+        return true;
+    }
+    
+    /**
+     * 任务是否可以合并到批量下载中：只按文件大小判断，不访问文件系统，可以在调度器锁内调用。
+     * 目标文件或临时文件已存在的任务由批量下载线程改为逐个下载
+     */
+    public boolean isBatchCandidate(DownloadTask task) {
+        return task.getFileSize() <= BATCH_FILE_MAX_SIZE && !runningTasks.contains(task);
+    }
+    
+    /**
+     * 批量下载直接覆盖写入，只适用于目标文件和临时文件都不存在（或设置为覆盖）、不涉及续传的任务
+     */
+    private boolean isBatchWritable(DownloadTask task) {
+        return "OVERWRITE".equals(AppConfig.getInstance().getFileExistsBehavior())
+            || !new File(task.getSavePath()).exists() && !new File(task.getSavePath() + PartFile.PART_SUFFIX).exists();
+    }
+    
+    /**
+     * 批量下载多个小文件：一个线程、一条连接，服务端按顺序连续发送所有文件，
+     * 每个任务仍单独回调 onCompleted / onError / onFinished（按列表顺序）。
+     * 服务端不支持批量命令或批量连接中断时，剩余任务逐个按普通方式下载
+     * @return 实际提交的任务（已在执行中的任务被忽略），为空表示没有提交
+     */
+    public List<DownloadTask> downloadBatch(List<DownloadTask> tasks, DownloadProgressListener listener) {
+        List<DownloadTask> accepted = new ArrayList<>(tasks.size());
+        for (DownloadTask task : tasks) {
+            if (runningTasks.add(task)) {
+                accepted.add(task);
+            } else {
+                logger.warn("[批量下载] 任务已在执行中，忽略重复启动: {}", task.getFileName());
+            }
+        }
+        if (accepted.isEmpty()) {
+            return accepted;
+        }
+        logger.info("[批量下载] 提交 {} 个小文件", accepted.size());
+        executor.execute(() -> doBatchDownload(accepted, listener));
+        return accepted;
+    }
+    
+    /**
+     * 执行单个任务的下载，处理失败、取消并在结束时清理和回调 onFinished
+     */
+    private void runDownload(DownloadTask task, DownloadProgressListener listener) {
+        try {
+            logger.debug("[下载线程] 线程已启动，准备调用 doDownload(): {}", task.getFileName());
+            doDownload(task, listener);
+        } catch (Exception e) {
+            if (task.isCancelled()) {
+                // 续传校验、修复阶段被取消时关闭连接会抛出异常，按取消处理
+                task.setStatus(DownloadTask.Status.CANCELLED);
+                task.setSpeed("0 KB/s");
+                logger.info("[下载线程] 下载被取消: fileName={}", task.getFileName());
+            } else {
                 task.setStatus(DownloadTask.Status.FAILED);
                 logger.error("[下载线程] 下载异常: fileName={}", task.getFileName(), e);
                 if (listener != null) {
                     listener.onError(task, e);
                 }
-            } finally {
-                // 清理资源
-                activeSockets.remove(task);
-                logger.debug("[下载线程] 线程结束: {}", task.getFileName());
             }
-        }).start();
-        
-        logger.debug("[下载入口] 下载线程已提交: {}", task.getFileName());
+        } finally {
+            // 清理资源
+            activeSockets.remove(task);
+            bandwidthLimiter.release(task);
+            runningTasks.remove(task);
+            logger.debug("[下载线程] 线程结束: {}", task.getFileName());
+            if (listener != null) {
+                listener.onFinished(task);
+            }
+        }
     }
     
     private void doDownload(DownloadTask task, DownloadProgressListener listener) throws Exception {
@@ -68,103 +184,136 @@ public class FileDownloadService {
         // 检查设置：文件存在时的行为
         boolean overwrite = "OVERWRITE".equals(config.getFileExistsBehavior());
         
+        // 数据写入临时文件，完成后才替换目标文件
+        PartFile partFile = new PartFile(task.getSavePath(), downloadIdentifier, task.getFileSize(), task.getChecksum());
+        File tempFile = partFile.getFile();
+        
+        // 服务端公布了可识别的校验和时，在下载过程中增量计算摘要
+        StreamingChecksum checksum = StreamingChecksum.forAdvertised(task.getChecksum());
+        if (checksum != null) {
+            logger.debug("启用下载校验: fileName={}, algorithm={}", task.getFileName(), checksum.getAlgorithm());
+        }
+        
         // 检查已下载的大小
         long downloadedSize = 0;
-        if (saveFile.exists()) {
-            if (overwrite) {
+        if (overwrite) {
+            if (saveFile.exists() || partFile.exists()) {
                 logger.info("文件已存在，根据设置【重新下载】: {}", saveFile.getAbsolutePath());
-                // 如果是重新下载，不设置 downloadedSize，后续会从 0 开始写入并覆盖
-                // 也可以选择在这里删除文件，但 RandomAccessFile "rw" 模式配合 raf.seek(0) 也能实现覆盖
-            } else {
-                downloadedSize = saveFile.length();
+            }
+            // 目标文件在下载完成时才被替换，这里只丢弃之前的临时文件
+            partFile.discard();
+        } else {
+            if (saveFile.exists()) {
+                // 目标路径上已有文件（可能是用户自己的同名文件，或旧版本直接写入目标文件时未下载完的数据）：
+                // 从不续传也不改动它；大小不同时不能当作已下载完成
+                if (saveFile.length() != task.getFileSize()) {
+                    throw new IOException("Target file exists with a different size (" + saveFile.length()
+                        + " bytes, expected " + task.getFileSize() + "): " + saveFile.getAbsolutePath());
+                }
+                logger.info("文件已存在，根据设置【跳过】: fileName={}, 已有大小={}", task.getFileName(), saveFile.length());
+                partFile.discard();
+                task.setDownloadedSize(task.getFileSize());
+                task.setStatus(DownloadTask.Status.COMPLETED);
+                if (listener != null) {
+                    listener.onCompleted(task);
+                }
+                return;
+            }
+            if (partFile.exists()) {
+                downloadedSize = partFile.loadResumePosition();
+                if (downloadedSize >= 0) {
+                    logger.debug("临时文件存在，按状态记录【续传】位置: {} bytes", downloadedSize);
+                    if (checksum == null && downloadedSize > 0) {
+                        // 没有整个文件的校验和，下载完成后无法发现已有数据的问题，续传前按分块清单校验
+                        downloadedSize = verifyResumedData(task, downloadIdentifier, tempFile, downloadedSize);
+                        partFile.checkpoint(downloadedSize);
+                    }
+                } else {
+                    // 没有状态记录或记录属于其他文件：已有数据的来源无法确认，丢弃后重新下载
+                    logger.info("临时文件没有可用的状态记录，重新下载: {}", tempFile.getAbsolutePath());
+                    partFile.discard();
+                    downloadedSize = 0;
+                }
                 task.setDownloadedSize(downloadedSize);
-                logger.debug("文件已存在，根据设置【续传】位置: {} bytes", downloadedSize);
             }
         }
         
-        // 如果已经下载完成 (仅在非覆盖模式下检查)
-        if (!overwrite && downloadedSize >= task.getFileSize()) {
-            logger.info("文件已下载完成，跳过: fileName={}, fileSize={}", task.getFileName(), task.getFileSize());
+        // 传输前检查剩余空间，不够写完整个文件时立即失败，不建立连接
+        ensureFreeSpace(saveFile, task.getFileSize() - (tempFile.exists() ? tempFile.length() : 0));
+        
+        task.setStatus(DownloadTask.Status.DOWNLOADING);
+        
+        // 临时文件已经写完，只是没来得及替换目标文件（例如重命名前程序退出）
+        if (downloadedSize >= task.getFileSize()) {
+            if (checksum != null) {
+                try (FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    if (!verifyChecksum(task, checksum, null, channel)
+                            && !repairMismatch(task, downloadIdentifier, channel)) {
+                        partFile.discard();
+                        task.setDownloadedSize(0);
+                        throw checksumMismatch(task, checksum);
+                    }
+                }
+            }
+            truncateQuietly(tempFile, task.getFileSize());
+            partFile.commit();
             task.setDownloadedSize(task.getFileSize());
             task.setStatus(DownloadTask.Status.COMPLETED);
+            task.setSpeed("0 KB/s");
+            logger.info("临时文件已完整，替换目标文件: fileName={}", task.getFileName());
             if (listener != null) {
                 listener.onCompleted(task);
             }
             return;
         }
         
-        task.setStatus(DownloadTask.Status.DOWNLOADING);
+        // 剩余数据足够大时拆分为多个字节区间并行下载
+        int segmentCount = resolveSegmentCount(task.getFileSize() - downloadedSize, config.getSegmentCount());
+        if (segmentCount > 1) {
+            doSegmentedDownload(task, listener, partFile, downloadIdentifier, downloadedSize, segmentCount, checksum);
+            return;
+        }
+        
         logger.info("开始下载: fileId={}, fileName={}, startPosition={}", downloadIdentifier, task.getFileName(), downloadedSize);
         
-        Socket socket = null;
+        TcpConnectionPool.Connection connection = null;
+        boolean reusable = false;
         RandomAccessFile raf = null;
+        boolean preallocated = false;
+        Future<?> prefixHashing = null;
         try {
-            logger.debug("连接服务器: {}:{}", serverHost, tcpPort);
-            socket = new Socket(serverHost, tcpPort);
-            socket.setSoTimeout(30000); // 设置 30 秒读取超时，防止网络卡死导致线程永久阻塞
-            activeSockets.put(task, socket);  // 保存 Socket 引用
-            logger.debug("连接成功，Socket: {}", socket);
+            raf = new RandomAccessFile(tempFile, "rw");
+            preallocated = preallocate(raf, task.getFileSize());
             
-            OutputStream out = socket.getOutputStream();
-            InputStream in = socket.getInputStream();
-            raf = new RandomAccessFile(saveFile, "rw");
-            
-            // 如果是重新下载模式且从头开始，清空文件内容
-            if (overwrite && downloadedSize == 0) {
-                raf.setLength(0);
-                logger.debug("重新下载模式：已清空旧文件内容");
-            }
-            
-            // 构建请求数据: appKey|fileId|startPosition
-            String requestData = config.getAppKey() + "|" + downloadIdentifier + "|" + downloadedSize;
-            byte[] dataBytes = requestData.getBytes(StandardCharsets.UTF_8);
-            
-            // 构建简化协议包：
-            // 0x20 0x20 (2字节命令)
-            // 4字节数据长度（大端序）
-            // 数据内容
-            byte[] packet = BytesDecimalismUtils.merge(
-                new byte[]{(byte) 0x20, (byte) 0x20},  // 命令标识
-                BytesDecimalismUtils.intTo4Bytes(dataBytes.length),  // 数据长度
-                dataBytes                               // 数据内容
-            );
-            
-            logger.debug("发送协议包: 总长度={}, 数据长度={}, 数据内容={}", packet.length, dataBytes.length, requestData);
-            
-            // 发送请求
-            out.write(packet);
-            out.flush();
-            logger.debug("协议包已发送，等待服务端响应...");
-            
-            // 读取响应状态（假设服务端返回 UTF-8 字符串）
-            // 使用 BufferedInputStream 包装，提高读取效率并配合 TCP 背压
-            BufferedInputStream bis = new BufferedInputStream(in, BUFFER_SIZE);
-            DataInputStream dataIn = new DataInputStream(bis);
-            logger.debug("开始读取服务端响应...");
-            String response = dataIn.readUTF();
-            logger.info("服务端响应: {}", response);
+            // 请求带结束位置（长度明确），读完后连接可归还连接池
+            logger.debug("连接服务器: {}:{}", serverHost, tcpPort);
+            connection = openPooledTransfer(task, downloadIdentifier, downloadedSize, task.getFileSize());
+            FileChannel fileChannel = raf.getChannel();
+            logger.debug("从断点位置继续写入: {} bytes", downloadedSize);
             
-            if (!response.equals("OK")) {
-                logger.error("服务端错误: {}", response);
-                throw new IOException("Server error: " + response);
+            // 续传时已存在的前缀在后台线程中补算摘要，新数据照常接收，补算追上写入位置后转为在读循环中计算。
+            // 补读跟随每次写入后更新的位置，而不是每秒才更新一次的任务进度，否则永远落后于写入位置
+            Segment written = new Segment(downloadedSize, task.getFileSize());
+            if (checksum != null && downloadedSize > 0) {
+                prefixHashing = startChecksumFollower(task, checksum, fileChannel, () -> written.position);
             }
             
-            // 从断点位置继续写入
-            raf.seek(downloadedSize);
-            logger.debug("定位文件指针到: {} bytes", downloadedSize);
-            
-            byte[] buffer = new byte[BUFFER_SIZE];
+            ByteBuffer data;
             int bytesRead;
             long lastUpdateTime = System.currentTimeMillis();
             long lastDownloadedSize = downloadedSize;
             long totalRead = 0;
             
-            logger.debug("开始接收文件数据，缓冲区大小: {} bytes", BUFFER_SIZE);
+            logger.debug("开始接收文件数据，读缓冲区大小: {} bytes", READ_BUFFER_SIZE);
             
-            // 循环读取数据。增加 downloadedSize < task.getFileSize() 判断，确保读够了就退出，
-            // 避免在服务端未关闭连接的情况下阻塞在最后的 read() 调用上。
-            while (downloadedSize < task.getFileSize() && (bytesRead = dataIn.read(buffer)) != -1) {
+            // 循环读取数据。服务端只发送请求的范围且发送完不关闭连接，读够了就退出，
+            // 每次最多读到范围末尾，不会读到连接上的下一个响应；限速时每次只读一小段
+            while (downloadedSize < task.getFileSize()
+                    && (data = connection.read((int) Math.min(bandwidthLimiter.readSize(task, READ_BUFFER_SIZE),
+                        task.getFileSize() - downloadedSize))) != null) {
+                bytesRead = data.remaining();
                 totalRead += bytesRead;
+                bandwidthLimiter.acquire(task, bytesRead);
                 
                 // 检查取消状态
                 if (task.isCancelled()) {
@@ -173,21 +322,16 @@ public class FileDownloadService {
                     break;
                 }
                 
-                // 检查暂停状态
-                while (task.isPaused()) {
+                // 检查暂停状态：阻塞等待继续或取消，不再轮询
+                if (task.isPaused()) {
                     task.setStatus(DownloadTask.Status.PAUSED);
-                    Thread.sleep(100);
-                    
-                    // 在暂停期间也要检查取消
-                    if (task.isCancelled()) {
-                        task.setStatus(DownloadTask.Status.CANCELLED);
-                        logger.info("暂停期间被取消: fileName={}", task.getFileName());
-                        break;
-                    }
+                    task.awaitResume();
                 }
                 
                 // 如果在暂停时被取消，退出外层循环
                 if (task.isCancelled()) {
+                    task.setStatus(DownloadTask.Status.CANCELLED);
+                    logger.info("暂停期间被取消: fileName={}", task.getFileName());
                     break;
                 }
                 
@@ -195,8 +339,9 @@ public class FileDownloadService {
                     task.setStatus(DownloadTask.Status.DOWNLOADING);
                 }
                 
-                raf.write(buffer, 0, bytesRead);
+                writeData(data, fileChannel, downloadedSize, checksum);
                 downloadedSize += bytesRead;
+                written.position = downloadedSize;
                 
                 // 计算速度和更新进度
                 long currentTime = System.currentTimeMillis();
@@ -213,6 +358,7 @@ public class FileDownloadService {
                     
                     lastUpdateTime = currentTime;
                     lastDownloadedSize = downloadedSize;
+                    partFile.checkpoint(downloadedSize);
                     
                     if (listener != null) {
                         listener.onProgress(task);
@@ -222,6 +368,17 @@ public class FileDownloadService {
             
             // 确保最后一次进度更新
             task.setDownloadedSize(downloadedSize);
+            reusable = !task.isCancelled() && downloadedSize == task.getFileSize();
+            
+            if (checksum != null && !task.isCancelled() && downloadedSize >= task.getFileSize()
+                    && !verifyChecksum(task, checksum, prefixHashing, fileChannel)
+                    && !repairMismatch(task, downloadIdentifier, fileChannel)) {
+                // 内容与服务端不一致，丢弃已下载的数据，下次重新下载
+                raf.close();
+                partFile.discard();
+                task.setDownloadedSize(0);
+                throw checksumMismatch(task, checksum);
+            }
             
             // 关闭文件写入
             if (raf != null) {
@@ -231,6 +388,7 @@ public class FileDownloadService {
             // 检查是否下载完成
             if (!task.isCancelled()) {
                 if (downloadedSize >= task.getFileSize()) {
+                    partFile.commit();
                     task.setStatus(DownloadTask.Status.COMPLETED);
                     task.setSpeed("0 KB/s");
                     logger.info("下载完成: fileName={}, downloadedSize={}, fileSize={}", 
@@ -265,8 +423,14 @@ public class FileDownloadService {
                 throw e;
             }
         } finally {
+            if (checksum != null) {
+                checksum.stop();
+            }
+            
             // 确保关闭所有资源
-            activeSockets.remove(task);
+            if (connection != null) {
+                unregisterSocket(task, connection.getSocket());
+            }
             
             // 关闭 RandomAccessFile
             if (raf != null) {
@@ -278,18 +442,249 @@ public class FileDownloadService {
                 }
             }
             
-            // 关闭 Socket
+            // 没有下载完成：记录实际写入的长度供下次续传，预分配的部分截回
+            if (downloadedSize < task.getFileSize() && tempFile.exists()) {
+                if (preallocated) {
+                    truncateQuietly(tempFile, downloadedSize);
+                }
+                partFile.checkpoint(downloadedSize);
+            }
+            
+            // 完整读完的连接归还连接池，否则关闭
+            releaseOrClose(connection, reusable);
+        }
+    }
+    
+    /**
+     * 批量下载：按请求大小把任务分成若干批，每批在一条连接上发送一个批量请求，
+     * 依次读取条目头和文件内容直接写入目标文件
+     */
+    private void doBatchDownload(List<DownloadTask> candidates, DownloadProgressListener listener) {
+        // 文件已存在的任务需要按设置跳过或续传，不能合并，批量传输结束后在本线程中逐个下载
+        List<DownloadTask> tasks = new ArrayList<>(candidates.size());
+        List<DownloadTask> existing = new ArrayList<>();
+        for (DownloadTask task : candidates) {
+            (isBatchWritable(task) ? tasks : existing).add(task);
+        }
+        if (!existing.isEmpty()) {
+            logger.debug("[批量下载] {} 个文件已存在，逐个下载", existing.size());
+        }
+        int done = 0;
+        try {
+            while (done < tasks.size()) {
+                List<DownloadTask> chunk = nextBatchChunk(tasks, done);
+                // 整批的剩余空间不够时改为逐个下载，由每个任务各自检查
+                ensureFreeSpace(new File(chunk.get(0).getSavePath()), chunk.stream().mapToLong(DownloadTask::getFileSize).sum());
+                TcpConnectionPool.Connection connection = openPooledBatch(chunk);
+                boolean reusable = false;
+                try {
+                    for (DownloadTask task : chunk) {
+                        receiveBatchEntry(connection, task, listener);
+                        finishBatchTask(task, listener);
+                        done++;
+                    }
+                    reusable = true;
+                } finally {
+                    releaseOrClose(connection, reusable);
+                }
+            }
+            logger.info("[批量下载] 完成 {} 个文件", tasks.size());
+        } catch (Exception e) {
+            // 服务端不支持批量命令、忙或连接中断：剩余任务按普通方式逐个下载
+            logger.warn("[批量下载] 批量传输失败，剩余 {} 个文件逐个下载: {}", tasks.size() - done, e.getMessage());
+            for (DownloadTask task : tasks.subList(done, tasks.size())) {
+                runSingle(task, listener);
+            }
+        }
+        for (DownloadTask task : existing) {
+            runSingle(task, listener);
+        }
+    }
+    
+    /**
+     * 批量下载中不能（或不再）合并传输的任务按普通方式下载，已被取消或暂停的直接结束
+     */
+    private void runSingle(DownloadTask task, DownloadProgressListener listener) {
+        if (task.isCancelled() || task.isPaused()) {
+            skipBatchTask(task);
+            finishBatchTask(task, listener);
+        } else {
+            runDownload(task, listener);
+        }
+    }
+    
+    /**
+     * 从 from 开始取一批任务，请求数据不超过 MAX_BATCH_REQUEST_BYTES
+     */
+    private List<DownloadTask> nextBatchChunk(List<DownloadTask> tasks, int from) {
+        int bytes = AppConfig.getInstance().getAppKey().length();
+        int end = from;
+        while (end < tasks.size()) {
+            bytes += batchIdentifier(tasks.get(end)).getBytes(StandardCharsets.UTF_8).length + 1;
+            if (bytes > MAX_BATCH_REQUEST_BYTES && end > from) {
+                break;
+            }
+            end++;
+        }
+        return tasks.subList(from, end);
+    }
+    
+    private String batchIdentifier(DownloadTask task) {
+        return task.getFileId() != null ? task.getFileId() : task.getFilePath();
+    }
+    
+    /**
+     * 从连接池取一条连接并发送批量请求，复用的连接已失效时换一条重试
+     */
+    private TcpConnectionPool.Connection openPooledBatch(List<DownloadTask> chunk) throws IOException {
+        // 构建请求数据: appKey|fileId1|fileId2|...
+        StringBuilder requestData = new StringBuilder(AppConfig.getInstance().getAppKey());
+        for (DownloadTask task : chunk) {
+            requestData.append('|').append(batchIdentifier(task));
+        }
+        AppConfig config = AppConfig.getInstance();
+        while (true) {
+            TcpConnectionPool.Connection connection = connectionPool.acquire(config.getServerHost(), config.getServerTcpPort());
             try {
-                if (socket != null && !socket.isClosed()) {
-                    socket.close();
-                    logger.debug("已关闭 Socket: fileName={}", task.getFileName());
+                sendRequest(connection, COMMAND_BATCH, requestData.toString());
+                return connection;
+            } catch (IOException e) {
+                connection.close();
+                if (!(e instanceof StaleConnectionException)) {
+                    throw e;
+                }
+                logger.debug("复用的连接已失效，重新获取连接: {}", e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * 读取批量响应中的一个条目并写入任务的目标文件。
+     * 单个文件失败（服务端不可用、校验不一致、目标路径被占用）只影响该任务，
+     * 读取连接失败时抛出异常，由调用方处理剩余任务
+     */
+    private void receiveBatchEntry(TcpConnectionPool.Connection connection, DownloadTask task,
+                                   DownloadProgressListener listener) throws IOException {
+        DataInputStream dataIn = connection.getInput();
+        // 条目头: writeUTF(fileId) + 8字节长度 + writeUTF(checksum 或错误信息)
+        String fileId = dataIn.readUTF();
+        long length = dataIn.readLong();
+        String checksumOrError = dataIn.readUTF();
+        if (!fileId.equals(batchIdentifier(task))) {
+            throw new IOException("Unexpected batch entry: " + fileId);
+        }
+        if (length < 0) {
+            batchEntryFailed(task, listener, new IOException("Server error: " + checksumOrError));
+            return;
+        }
+        
+        File saveFile = new File(task.getSavePath());
+        if (task.isCancelled() || task.isPaused() || saveFile.isDirectory()) {
+            dataIn.skipNBytes(length);
+            if (saveFile.isDirectory()) {
+                batchEntryFailed(task, listener, new IOException("无法写入文件，目标路径已被文件夹占用: " + saveFile.getAbsolutePath()));
+            } else {
+                skipBatchTask(task);
+            }
+            return;
+        }
+        File parentDir = saveFile.getParentFile();
+        if (parentDir != null && !parentDir.exists()) {
+            parentDir.mkdirs();
+        }
+        
+        // 条目头中没有校验和时（服务端索引尚未计算）使用列表中公布的校验和
+        StreamingChecksum checksum = StreamingChecksum.forAdvertised(
+            checksumOrError.isEmpty() ? task.getChecksum() : checksumOrError);
+        task.setStatus(DownloadTask.Status.DOWNLOADING);
+        
+        // 与普通下载一样先写临时文件，完成后替换目标文件；批量下载不续传，不保存状态记录
+        PartFile partFile = new PartFile(task.getSavePath(), fileId, length, task.getChecksum());
+        boolean matched = true;
+        long position = 0;
+        try (FileChannel channel = FileChannel.open(partFile.getFile().toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            while (position < length) {
+                ByteBuffer data = connection.read(
+                    (int) Math.min(bandwidthLimiter.readSize(task, READ_BUFFER_SIZE), length - position));
+                if (data == null) {
+                    throw new EOFException("Batch entry truncated: " + fileId);
                 }
+                int bytesRead = data.remaining();
+                bandwidthLimiter.acquire(task, bytesRead);
+                if (task.isCancelled()) {
+                    // 连接上还有后续文件，跳过本文件剩余数据
+                    dataIn.skipNBytes(length - position - bytesRead);
+                    break;
+                }
+                writeData(data, channel, position, checksum);
+                position += bytesRead;
+            }
+            if (checksum != null && position == length) {
+                matched = checksum.verify(channel, length);
+            }
+        } catch (IOException e) {
+            // 没有状态记录的半个文件会在续传时重新校验，直接删除后再由调用方处理
+            partFile.discard();
+            throw e;
+        }
+        
+        if (task.isCancelled()) {
+            partFile.discard();
+            skipBatchTask(task);
+        } else if (!matched) {
+            partFile.discard();
+            batchEntryFailed(task, listener, checksumMismatch(task, checksum));
+        } else {
+            try {
+                partFile.commit();
             } catch (IOException e) {
-                logger.warn("关闭 Socket 时发生错误", e);
+                partFile.discard();
+                batchEntryFailed(task, listener, e);
+                return;
             }
+            task.setDownloadedSize(length);
+            task.setStatus(DownloadTask.Status.COMPLETED);
+            task.setSpeed("0 KB/s");
+            logger.debug("[批量下载] 文件完成: fileName={}, size={}", task.getFileName(), length);
+            if (listener != null) {
+                listener.onCompleted(task);
+            }
+        }
+    }
+    
+    private void batchEntryFailed(DownloadTask task, DownloadProgressListener listener, IOException e) {
+        task.setStatus(DownloadTask.Status.FAILED);
+        logger.error("[批量下载] 文件下载失败: fileName={}, {}", task.getFileName(), e.getMessage());
+        if (listener != null) {
+            listener.onError(task, e);
         }
     }
     
+    /**
+     * 轮到时已被取消或暂停的任务：不写文件，恢复后重新排队按普通方式下载
+     */
+    private void skipBatchTask(DownloadTask task) {
+        task.setStatus(task.isCancelled() ? DownloadTask.Status.CANCELLED : DownloadTask.Status.PAUSED);
+        task.setSpeed("0 KB/s");
+    }
+    
+    private void finishBatchTask(DownloadTask task, DownloadProgressListener listener) {
+        activeSockets.remove(task);
+        bandwidthLimiter.release(task);
+        runningTasks.remove(task);
+        if (listener != null) {
+            listener.onFinished(task);
+        }
+    }
+    
+    /**
+     * 任务是否仍有下载线程在执行（暂停中的任务也算）
+     */
+    public boolean isRunning(DownloadTask task) {
+        return runningTasks.contains(task);
+    }
+    
     /**
      * 强制取消下载（关闭 Socket 连接）
      */
@@ -298,16 +693,674 @@ public class FileDownloadService {
         task.setStatus(DownloadTask.Status.CANCELLED);  // 立即设置状态
         task.setSpeed("0 KB/s");  // 清零速度
         
-        Socket socket = activeSockets.get(task);
-        if (socket != null && !socket.isClosed()) {
+        Set<Socket> sockets = activeSockets.get(task);
+        if (sockets != null && !sockets.isEmpty()) {
+            for (Socket socket : sockets) {
+                closeQuietly(socket);
+            }
+            logger.info("强制关闭 {} 个 Socket 以取消下载: fileName={}", sockets.size(), task.getFileName());
+        } else {
+            logger.info("任务已取消: fileName={}, 无活动连接", task.getFileName());
+        }
+    }
+    
+    /**
+     * 根据剩余字节数计算实际使用的分段数，保证每段不小于 MIN_SEGMENT_SIZE
+     */
+    private int resolveSegmentCount(long remaining, int configured) {
+        if (configured <= 1 || remaining < MIN_SEGMENT_SIZE * 2) {
+            return 1;
+        }
+        return (int) Math.max(1, Math.min(configured, remaining / MIN_SEGMENT_SIZE));
+    }
+    
+    /**
+     * 分段下载：把 [startOffset, fileSize) 拆成多个字节区间，每个区间使用独立的 TCP 连接，
+     * 通过 FileChannel 按偏移写入同一个文件，进度汇总到同一个 DownloadTask。
+     *
+     * <p>失败、取消或中断时把临时文件截断到"从头开始连续完成"的位置，并记录到状态中供下次续传。</p>
+     */
+    private void doSegmentedDownload(DownloadTask task, DownloadProgressListener listener, PartFile partFile,
+                                     String downloadIdentifier, long startOffset, int segmentCount,
+                                     StreamingChecksum checksum) throws Exception {
+        long fileSize = task.getFileSize();
+        long segmentSize = (fileSize - startOffset + segmentCount - 1) / segmentCount;
+        List<Segment> segments = new ArrayList<>(segmentCount);
+        for (long start = startOffset; start < fileSize; start += segmentSize) {
+            segments.add(new Segment(start, Math.min(start + segmentSize, fileSize)));
+        }
+        logger.info("开始分段下载: fileId={}, fileName={}, startPosition={}, segments={}",
+            downloadIdentifier, task.getFileName(), startOffset, segments.size());
+        
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        try (RandomAccessFile raf = new RandomAccessFile(partFile.getFile(), "rw")) {
+            FileChannel fileChannel = raf.getChannel();
+            // 各分段在不同偏移写入，预分配后文件不再随写入位置反复扩展；未完成时下面会截断到连续位置
+            preallocate(raf, fileSize);
+            
+            List<Future<?>> workers = new ArrayList<>(segments.size());
+            for (Segment segment : segments) {
+                workers.add(executor.submit(() -> {
+                    try {
+                        downloadSegment(task, downloadIdentifier, segment, fileChannel, checksum);
+                    } catch (Exception e) {
+                        if (!task.isCancelled() && failure.compareAndSet(null, e)) {
+                            logger.error("分段下载失败: fileName={}, range=[{}, {})", task.getFileName(), segment.start, segment.end, e);
+                            // 一个分段失败，关闭其余连接让整个任务尽快结束
+                            Set<Socket> sockets = activeSockets.get(task);
+                            if (sockets != null) {
+                                sockets.forEach(FileDownloadService.this::closeQuietly);
+                            }
+                        }
+                    }
+                }));
+            }
+            
+            // 第一个分段的数据在读循环中计入摘要，之前的前缀和后面的分段随连续写入位置的推进在后台补读
+            Future<?> checksumFollower = null;
+            if (checksum != null) {
+                checksumFollower = startChecksumFollower(task, checksum, fileChannel,
+                    () -> contiguousPosition(segments, fileSize));
+            }
+            
+            // 当前线程负责汇总进度
+            long lastUpdateTime = System.currentTimeMillis();
+            long lastDownloadedSize = startOffset + downloadedBytes(segments);
+            for (Future<?> worker : workers) {
+                while (!awaitSegment(worker)) {
+                    long currentTime = System.currentTimeMillis();
+                    if (currentTime - lastUpdateTime >= 1000) {
+                        long downloadedSize = startOffset + downloadedBytes(segments);
+                        task.setDownloadedSize(downloadedSize);
+                        
+                        long timeDiff = currentTime - lastUpdateTime;
+                        long sizeDiff = downloadedSize - lastDownloadedSize;
+                        double speedKB = (sizeDiff / 1024.0) / (timeDiff / 1000.0);
+                        task.setSpeed(String.format("%.2f KB/s", speedKB));
+                        
+                        lastUpdateTime = currentTime;
+                        lastDownloadedSize = downloadedSize;
+                        partFile.checkpoint(contiguousPosition(segments, fileSize));
+                        
+                        if (listener != null) {
+                            listener.onProgress(task);
+                        }
+                    }
+                }
+            }
+            
+            long downloadedSize = startOffset + downloadedBytes(segments);
+            if (downloadedSize < fileSize) {
+                long contiguous = contiguousPosition(segments, fileSize);
+                raf.setLength(contiguous);
+                partFile.checkpoint(contiguous);
+                downloadedSize = contiguous;
+                logger.debug("分段下载未完成，文件截断到连续位置: {} bytes", contiguous);
+            }
+            task.setDownloadedSize(downloadedSize);
+            
+            if (checksum != null && !task.isCancelled() && failure.get() == null
+                    && !verifyChecksum(task, checksum, checksumFollower, fileChannel)
+                    && !repairMismatch(task, downloadIdentifier, fileChannel)) {
+                // 内容与服务端不一致，丢弃已下载的数据，下次重新下载
+                raf.setLength(0);
+                partFile.checkpoint(0);
+                task.setDownloadedSize(0);
+                failure.set(checksumMismatch(task, checksum));
+            }
+        } finally {
+            if (checksum != null) {
+                checksum.stop();
+            }
+            activeSockets.remove(task);
+        }
+        
+        if (task.isCancelled()) {
+            task.setStatus(DownloadTask.Status.CANCELLED);
+            task.setSpeed("0 KB/s");
+            logger.info("分段下载被取消: fileName={}", task.getFileName());
+            if (listener != null) {
+                listener.onProgress(task);
+            }
+        } else if (failure.get() != null) {
+            task.setStatus(DownloadTask.Status.FAILED);
+            throw failure.get();
+        } else {
+            partFile.commit();
+            task.setDownloadedSize(fileSize);
+            task.setStatus(DownloadTask.Status.COMPLETED);
+            task.setSpeed("0 KB/s");
+            logger.info("分段下载完成: fileName={}, fileSize={}", task.getFileName(), fileSize);
+            if (listener != null) {
+                listener.onCompleted(task);
+            }
+        }
+    }
+    
+    /**
+     * 下载单个分段，直到写满 [segment.start, segment.end)
+     */
+    private void downloadSegment(DownloadTask task, String downloadIdentifier, Segment segment,
+                                 FileChannel fileChannel, StreamingChecksum checksum) throws Exception {
+        // 使用带结束位置的请求，服务端只发送本段数据
+        TcpConnectionPool.Connection connection = openPooledTransfer(task, downloadIdentifier, segment.start, segment.end);
+        boolean reusable = false;
+        try {
+            long position = segment.start;
+            
+            while (position < segment.end) {
+                if (task.isCancelled()) {
+                    return;
+                }
+                if (task.isPaused()) {
+                    task.setStatus(DownloadTask.Status.PAUSED);
+                    task.awaitResume();
+                }
+                if (task.isCancelled()) {
+                    return;
+                }
+                if (task.getStatus().equals(DownloadTask.Status.PAUSED.getText())) {
+                    task.setStatus(DownloadTask.Status.DOWNLOADING);
+                }
+                
+                // 各分段共用任务的限速额度
+                int toRead = (int) Math.min(bandwidthLimiter.readSize(task, READ_BUFFER_SIZE), segment.end - position);
+                ByteBuffer data = connection.read(toRead);
+                if (data == null) {
+                    throw new IOException("Segment interrupted: connection closed prematurely at " + position);
+                }
+                int bytesRead = data.remaining();
+                bandwidthLimiter.acquire(task, bytesRead);
+                
+                writeData(data, fileChannel, position, checksum);
+                position += bytesRead;
+                segment.position = position;
+            }
+            reusable = true;
+            logger.debug("分段完成: fileName={}, range=[{}, {})", task.getFileName(), segment.start, segment.end);
+        } finally {
+            unregisterSocket(task, connection.getSocket());
+            releaseOrClose(connection, reusable);
+        }
+    }
+    
+    /**
+     * 把连接上读到的数据写入文件的指定位置，写完后计入摘要（数据在直接内存中，不经过堆上的 byte[]）
+     */
+    private void writeData(ByteBuffer data, FileChannel fileChannel, long position, StreamingChecksum checksum)
+            throws IOException {
+        int start = data.position();
+        long writePosition = position;
+        while (data.hasRemaining()) {
+            writePosition += fileChannel.write(data, writePosition);
+        }
+        if (checksum != null) {
+            data.position(start);
+            checksum.update(position, data);
+        }
+    }
+    
+    /**
+     * 检查保存目录所在磁盘的可用空间，不足 requiredBytes 时抛出异常
+     */
+    private void ensureFreeSpace(File saveFile, long requiredBytes) throws IOException {
+        if (requiredBytes <= 0) {
+            return;
+        }
+        // 目录可能还没有创建，取最近的已存在的上级目录所在的磁盘
+        File dir = saveFile.getAbsoluteFile().getParentFile();
+        while (dir != null && !dir.exists()) {
+            dir = dir.getParentFile();
+        }
+        if (dir == null) {
+            return;
+        }
+        long usable = dir.getUsableSpace();
+        if (usable < requiredBytes) {
+            throw new IOException(String.format("磁盘空间不足: 需要 %.1f MB，可用 %.1f MB (%s)",
+                requiredBytes / 1048576.0, usable / 1048576.0, dir.getAbsolutePath()));
+        }
+    }
+    
+    /**
+     * 设置中开启预分配时，把文件一次性扩展到完整大小。
+     * Windows (NTFS) 上 setLength 会为文件实际分配磁盘空间；Linux 等平台上只生成稀疏文件，
+     * 空间由传输前的 ensureFreeSpace 检查保证
+     * @return 是否扩展了文件，调用方未下载完成时需要截回实际写入的长度
+     */
+    private boolean preallocate(RandomAccessFile raf, long fileSize) throws IOException {
+        if (!AppConfig.getInstance().isPreallocateFiles() || raf.length() >= fileSize) {
+            return false;
+        }
+        raf.setLength(fileSize);
+        logger.debug("已预分配文件大小: {} bytes", fileSize);
+        return true;
+    }
+    
+    private void truncateQuietly(File saveFile, long length) {
+        try (RandomAccessFile raf = new RandomAccessFile(saveFile, "rw")) {
+            if (raf.length() > length) {
+                raf.setLength(length);
+                logger.debug("文件截断到已下载位置: {} bytes", length);
+            }
+        } catch (IOException e) {
+            logger.warn("截断预分配的文件失败: {}", saveFile.getAbsolutePath(), e);
+        }
+    }
+    
+    /**
+     * 续传前按分块清单校验已有的完整分块（服务端没有公布整个文件的校验和时使用）：损坏的分块按字节区间重新下载，
+     * 末尾不完整的分块无法校验，截断到分块边界后从那里继续。服务端文件内容变化而大小不变时，
+     * 与新内容不同的分块同样被重新下载
+     * @return 校验后的续传位置；没有可用的分块清单时按状态记录的位置续传
+     */
+    private long verifyResumedData(DownloadTask task, String downloadIdentifier, File tempFile,
+                                   long resumePosition) throws Exception {
+        ChunkManifest manifest = loadManifest(task, downloadIdentifier);
+        if (manifest == null) {
+            logger.debug("没有分块清单，按状态记录续传: {}", task.getFileName());
+            return resumePosition;
+        }
+        try {
+            MessageDigest.getInstance(manifest.getAlgorithm());
+        } catch (NoSuchAlgorithmException e) {
+            logger.warn("不支持的分块清单算法 {}，按状态记录续传: {}", manifest.getAlgorithm(), task.getFileName());
+            return resumePosition;
+        }
+        
+        long fileSize = task.getFileSize();
+        if (manifest.getFileSize() != fileSize) {
+            throw new IOException("Source file changed: size " + fileSize + " -> " + manifest.getFileSize());
+        }
+        
+        // 只有完整的分块才能校验；文件已写满时最后一块（可能较短）也是完整的
+        int chunkCount = manifest.getChunkCount();
+        int checkedChunks = resumePosition >= fileSize ? chunkCount : (int) (resumePosition / manifest.getChunkSize());
+        long verifiedPosition = checkedChunks == chunkCount ? fileSize : manifest.getChunkStart(checkedChunks);
+        
+        long start = System.currentTimeMillis();
+        try (FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            List<Integer> badChunks = findBadChunks(manifest, channel, checkedChunks);
+            if (!badChunks.isEmpty()) {
+                repairChunks(task, downloadIdentifier, manifest, channel, badChunks);
+            }
+            if (channel.size() > verifiedPosition) {
+                channel.truncate(verifiedPosition);
+            }
+            logger.info("续传校验完成: fileName={}, 校验 {} 块, 重新下载 {} 块, 续传位置 {} bytes, 耗时 {}ms",
+                task.getFileName(), checkedChunks, badChunks.size(), verifiedPosition, System.currentTimeMillis() - start);
+        }
+        return verifiedPosition;
+    }
+    
+    /**
+     * 整个文件的校验和不一致时（例如系统崩溃后状态记录之前的数据没有真正落盘），按分块清单找出损坏的分块，
+     * 只重新下载这些字节区间，再重新计算整个文件的校验和；只在校验失败后才获取分块清单。
+     * 不一致也可能是服务端文件内容变化了，因此先按服务端当前的文件详情更新校验和，修复后与新的校验和比较
+     * @return 修复后是否与公布的校验和一致；没有可用的分块清单、找不到损坏的分块或修复失败时返回 false
+     */
+    private boolean repairMismatch(DownloadTask task, String downloadIdentifier, FileChannel channel) throws Exception {
+        boolean sourceChanged = refreshChecksum(task, downloadIdentifier);
+        ChunkManifest manifest = loadManifest(task, downloadIdentifier);
+        if (manifest == null || manifest.getFileSize() != task.getFileSize()) {
+            // 无法修复，但内容变化后已下载的数据可能正好是新内容
+            return sourceChanged && matchesChecksum(task, channel);
+        }
+        try {
+            MessageDigest.getInstance(manifest.getAlgorithm());
+        } catch (NoSuchAlgorithmException e) {
+            logger.warn("不支持的分块清单算法 {}，无法修复: {}", manifest.getAlgorithm(), task.getFileName());
+            return sourceChanged && matchesChecksum(task, channel);
+        }
+        
+        long start = System.currentTimeMillis();
+        try {
+            List<Integer> badChunks = findBadChunks(manifest, channel, manifest.getChunkCount());
+            if (badChunks.isEmpty() && !sourceChanged) {
+                return false;
+            }
+            if (!badChunks.isEmpty()) {
+                repairChunks(task, downloadIdentifier, manifest, channel, badChunks);
+            }
+            boolean matched = matchesChecksum(task, channel);
+            logger.info("按分块清单修复: fileName={}, 重新下载 {} 块, 修复后校验{}, 耗时 {}ms", task.getFileName(),
+                badChunks.size(), matched ? "通过" : "失败", System.currentTimeMillis() - start);
+            return matched;
+        } catch (Exception e) {
+            if (task.isCancelled()) {
+                throw e;
+            }
+            logger.warn("按分块清单修复失败: fileName={}", task.getFileName(), e);
+            return false;
+        }
+    }
+    
+    /**
+     * 与任务当前的校验和比较；服务端不再公布可识别的校验和时没有可比较的，视为一致
+     */
+    private boolean matchesChecksum(DownloadTask task, FileChannel channel) throws IOException {
+        StreamingChecksum expected = StreamingChecksum.forAdvertised(task.getChecksum());
+        return expected == null || expected.verify(channel, task.getFileSize());
+    }
+    
+    /**
+     * 重新获取服务端当前的文件详情，校验和变化时（文件内容已变化）更新任务的校验和，之后按新的校验和校验
+     * @return 校验和是否变化
+     * @throws IOException 文件大小也变化了，已有数据无法续传
+     */
+    private boolean refreshChecksum(DownloadTask task, String downloadIdentifier) throws IOException {
+        FileInfo current = fileListService.prepareDownload(downloadIdentifier);
+        if (current == null) {
+            // 无法获取时保留原来的校验和
+            return false;
+        }
+        if (current.getFileSize() != task.getFileSize()) {
+            throw new IOException("Source file changed: size " + task.getFileSize() + " -> " + current.getFileSize());
+        }
+        if (!Objects.equals(current.getChecksum(), task.getChecksum())) {
+            logger.info("服务端文件内容已变化，更新校验和: fileName={}, {} -> {}",
+                task.getFileName(), task.getChecksum(), current.getChecksum());
+            task.setChecksum(current.getChecksum());
+            taskDAO.updateTaskChecksum(task.getTaskId(), current.getChecksum());
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * 从服务端获取分块清单并缓存；服务端不可用时使用本地缓存
+     */
+    private ChunkManifest loadManifest(DownloadTask task, String downloadIdentifier) {
+        ChunkManifest manifest = fileListService.fetchManifest(downloadIdentifier);
+        ChunkManifest cached = taskDAO.getManifest(task.getTaskId());
+        if (manifest == null) {
+            if (cached != null) {
+                logger.info("无法获取分块清单，使用本地缓存: {}", task.getFileName());
+            }
+            return cached;
+        }
+        if (cached == null || !manifest.getRootHash().equals(cached.getRootHash())) {
+            if (cached != null) {
+                logger.info("服务端文件内容已变化（Merkle 根不同），按新的分块清单校验: {}", task.getFileName());
+            }
+            taskDAO.saveManifest(task.getTaskId(), manifest);
+        }
+        return manifest;
+    }
+    
+    /**
+     * 并行计算前 chunkCount 个分块的哈希，返回与清单不一致的分块序号（升序）
+     */
+    private List<Integer> findBadChunks(ChunkManifest manifest, FileChannel channel, int chunkCount) throws Exception {
+        AtomicInteger nextChunk = new AtomicInteger();
+        List<Integer> badChunks = Collections.synchronizedList(new ArrayList<>());
+        List<Future<?>> workers = new ArrayList<>(VERIFY_PARALLELISM);
+        for (int i = 0; i < Math.min(VERIFY_PARALLELISM, chunkCount); i++) {
+            workers.add(executor.submit(() -> {
+                MessageDigest digest = MessageDigest.getInstance(manifest.getAlgorithm());
+                ByteBuffer buffer = ByteBuffer.allocate(manifest.getChunkSize());
+                int index;
+                while ((index = nextChunk.getAndIncrement()) < chunkCount) {
+                    long chunkStart = manifest.getChunkStart(index);
+                    buffer.clear();
+                    buffer.limit((int) (manifest.getChunkEnd(index) - chunkStart));
+                    while (buffer.hasRemaining()) {
+                        if (channel.read(buffer, chunkStart + buffer.position()) < 0) {
+                            break;
+                        }
+                    }
+                    digest.update(buffer.array(), 0, buffer.position());
+                    if (!HexFormat.of().formatHex(digest.digest()).equalsIgnoreCase(manifest.getChunkHash(index))) {
+                        badChunks.add(index);
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> worker : workers) {
             try {
-                socket.close();
-                logger.info("强制关闭 Socket 以取消下载: fileName={}", task.getFileName());
+                worker.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+        Collections.sort(badChunks);
+        return badChunks;
+    }
+    
+    /**
+     * 通过一条连接依次请求损坏分块所在的字节区间（相邻分块合并为一个请求），校验后按偏移写回
+     */
+    private void repairChunks(DownloadTask task, String downloadIdentifier, ChunkManifest manifest,
+                              FileChannel channel, List<Integer> badChunks) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance(manifest.getAlgorithm());
+        byte[] buffer = new byte[manifest.getChunkSize()];
+        TcpConnectionPool.Connection connection = null;
+        boolean reusable = false;
+        try {
+            int i = 0;
+            while (i < badChunks.size()) {
+                int first = badChunks.get(i);
+                int last = first;
+                while (i + 1 < badChunks.size() && badChunks.get(i + 1) == last + 1) {
+                    last = badChunks.get(++i);
+                }
+                i++;
+                
+                logger.info("重新下载损坏的分块: fileName={}, chunks=[{}, {}], range=[{}, {})", task.getFileName(),
+                    first, last, manifest.getChunkStart(first), manifest.getChunkEnd(last));
+                if (connection == null) {
+                    connection = openPooledTransfer(task, downloadIdentifier,
+                        manifest.getChunkStart(first), manifest.getChunkEnd(last));
+                } else {
+                    openTransfer(connection, downloadIdentifier, manifest.getChunkStart(first), manifest.getChunkEnd(last));
+                }
+                DataInputStream dataIn = connection.getInput();
+                for (int index = first; index <= last; index++) {
+                    if (task.isCancelled()) {
+                        throw new IOException("Download cancelled during repair");
+                    }
+                    int length = (int) (manifest.getChunkEnd(index) - manifest.getChunkStart(index));
+                    dataIn.readFully(buffer, 0, length);
+                    bandwidthLimiter.acquire(task, length);
+                    digest.update(buffer, 0, length);
+                    if (!HexFormat.of().formatHex(digest.digest()).equalsIgnoreCase(manifest.getChunkHash(index))) {
+                        throw new IOException("Chunk " + index + " still does not match the manifest after refetch");
+                    }
+                    ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, length);
+                    long position = manifest.getChunkStart(index);
+                    while (byteBuffer.hasRemaining()) {
+                        position += channel.write(byteBuffer, position);
+                    }
+                }
+            }
+            reusable = true;
+        } finally {
+            if (connection != null) {
+                unregisterSocket(task, connection.getSocket());
+                releaseOrClose(connection, reusable);
+            }
+        }
+    }
+    
+    /**
+     * 启动后台补读线程，跟随已写入位置把不在读循环中计算的数据计入摘要
+     */
+    private Future<?> startChecksumFollower(DownloadTask task, StreamingChecksum checksum, FileChannel fileChannel,
+                                            LongSupplier frontier) {
+        long fileSize = task.getFileSize();
+        return executor.submit(() -> {
+            checksum.follow(fileChannel, frontier, fileSize);
+            return null;
+        });
+    }
+    
+    /**
+     * 停止后台补读，补齐剩余部分后与服务端公布的校验和比较
+     */
+    private boolean verifyChecksum(DownloadTask task, StreamingChecksum checksum, Future<?> follower,
+                                   FileChannel fileChannel) throws IOException, InterruptedException {
+        checksum.stop();
+        if (follower != null) {
+            try {
+                follower.get();
+            } catch (ExecutionException e) {
+                // 后台补读失败时由下面的 verify 从中断的位置继续
+                logger.warn("后台校验补读失败: fileName={}", task.getFileName(), e.getCause());
+            }
+        }
+        long start = System.currentTimeMillis();
+        boolean matched = checksum.verify(fileChannel, task.getFileSize());
+        logger.info("下载校验{}: fileName={}, algorithm={}, 收尾耗时={}ms", matched ? "通过" : "失败",
+            task.getFileName(), checksum.getAlgorithm(), System.currentTimeMillis() - start);
+        return matched;
+    }
+    
+    private IOException checksumMismatch(DownloadTask task, StreamingChecksum checksum) {
+        return new IOException("Checksum mismatch (" + checksum.getAlgorithm() + "): " + task.getFileName());
+    }
+    
+    /**
+     * 最多等待一秒
+     * @return 分段是否已结束
+     */
+    private boolean awaitSegment(Future<?> worker) throws InterruptedException {
+        try {
+            worker.get(1, TimeUnit.SECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (ExecutionException e) {
+            // 分段内部已记录失败原因
+            return true;
+        }
+    }
+    
+    private long downloadedBytes(List<Segment> segments) {
+        long total = 0;
+        for (Segment segment : segments) {
+            total += segment.position - segment.start;
+        }
+        return total;
+    }
+    
+    private long contiguousPosition(List<Segment> segments, long fileSize) {
+        for (Segment segment : segments) {
+            if (segment.position < segment.end) {
+                return segment.position;
+            }
+        }
+        return fileSize;
+    }
+    
+    /**
+     * 从连接池取一条连接并发送下载请求。
+     * 复用的空闲连接可能已被服务端关闭，请求发不出去或读不到响应时换一条连接重试
+     * @param endPosition 结束位置（不包含）
+     */
+    private TcpConnectionPool.Connection openPooledTransfer(DownloadTask task, String downloadIdentifier,
+                                                            long startPosition, long endPosition) throws IOException {
+        AppConfig config = AppConfig.getInstance();
+        while (true) {
+            TcpConnectionPool.Connection connection = connectionPool.acquire(config.getServerHost(), config.getServerTcpPort());
+            registerSocket(task, connection.getSocket());  // 保存 Socket 引用，取消时关闭
+            try {
+                openTransfer(connection, downloadIdentifier, startPosition, endPosition);
+                return connection;
             } catch (IOException e) {
-                logger.error("关闭 Socket 失败", e);
+                unregisterSocket(task, connection.getSocket());
+                connection.close();
+                if (!(e instanceof StaleConnectionException) || task.isCancelled()) {
+                    throw e;
+                }
+                logger.debug("复用的连接已失效，重新获取连接: {}", e.getMessage());
             }
+        }
+    }
+    
+    /**
+     * 在连接上发送下载请求并校验服务端响应，成功返回后连接输入流定位在文件数据起点
+     * @param endPosition 结束位置（不包含），小于 0 表示一直读到文件末尾（服务端发送完会关闭连接）
+     */
+    private void openTransfer(TcpConnectionPool.Connection connection, String downloadIdentifier,
+                              long startPosition, long endPosition) throws IOException {
+        // 构建请求数据: appKey|fileId|startPosition[|endPosition]
+        String requestData = AppConfig.getInstance().getAppKey() + "|" + downloadIdentifier + "|" + startPosition;
+        if (endPosition >= 0) {
+            requestData += "|" + endPosition;
+        }
+        sendRequest(connection, COMMAND_DOWNLOAD, requestData);
+    }
+    
+    /**
+     * 发送一个协议包并读取服务端响应状态，响应不是 "OK" 时抛出异常
+     */
+    private void sendRequest(TcpConnectionPool.Connection connection, byte command, String requestData) throws IOException {
+        byte[] dataBytes = requestData.getBytes(StandardCharsets.UTF_8);
+        
+        // 构建简化协议包：
+        // 0x20 0x20 / 0x20 0x21 (2字节命令)
+        // 4字节数据长度（大端序）
+        // 数据内容
+        byte[] packet = BytesDecimalismUtils.merge(
+            new byte[]{(byte) 0x20, command},  // 命令标识
+            BytesDecimalismUtils.intTo4Bytes(dataBytes.length),  // 数据长度
+            dataBytes                               // 数据内容
+        );
+        
+        logger.debug("发送协议包: 总长度={}, 数据长度={}, 数据内容={}", packet.length, dataBytes.length,
+            command == COMMAND_BATCH ? "<批量请求>" : requestData);
+        
+        // 发送请求并读取响应状态（服务端返回 writeUTF 格式的字符串）
+        String response;
+        try {
+            OutputStream out = connection.getOutput();
+            out.write(packet);
+            out.flush();
+            response = connection.getInput().readUTF();
+        } catch (IOException e) {
+            if (connection.isReused()) {
+                throw new StaleConnectionException(e);
+            }
+            throw e;
+        }
+        logger.debug("服务端响应: {}", response);
+        
+        if (!response.equals("OK")) {
+            logger.error("服务端错误: {}", response);
+            throw new IOException("Server error: " + response);
+        }
+    }
+    
+    private void releaseOrClose(TcpConnectionPool.Connection connection, boolean reusable) {
+        if (connection == null) {
+            return;
+        }
+        if (reusable) {
+            connectionPool.release(connection);
         } else {
-            logger.info("任务已取消: fileName={}, 无活动连接", task.getFileName());
+            connection.close();
+        }
+    }
+    
+    private void registerSocket(DownloadTask task, Socket socket) {
+        activeSockets.computeIfAbsent(task, k -> ConcurrentHashMap.newKeySet()).add(socket);
+    }
+    
+    private void unregisterSocket(DownloadTask task, Socket socket) {
+        Set<Socket> sockets = activeSockets.get(task);
+        if (sockets != null && socket != null) {
+            sockets.remove(socket);
+        }
+    }
+    
+    private void closeQuietly(Socket socket) {
+        try {
+            if (!socket.isClosed()) {
+                socket.close();
+            }
+        } catch (IOException e) {
+            logger.warn("关闭 Socket 时发生错误", e);
         }
     }
     
@@ -326,9 +1379,41 @@ public class FileDownloadService {
         return host;
     }
     
+    /**
+     * 下载的字节区间 [start, end)，position 为已写入的位置（每次写入后更新，供后台校验补读跟随）
+     */
+    private static class Segment {
+        final long start;
+        final long end;
+        volatile long position;
+        
+        Segment(long start, long end) {
+            this.start = start;
+            this.end = end;
+            this.position = start;
+        }
+    }
+    
     public interface DownloadProgressListener {
         void onProgress(DownloadTask task);
         void onCompleted(DownloadTask task);
         void onError(DownloadTask task, Exception e);
+        
+        /**
+         * 下载线程结束时调用（无论完成、失败还是取消）
+         */
+        default void onFinished(DownloadTask task) {
+        }
+    }
+    
+    /**
+     * 复用的空闲连接已被服务端关闭
+     */
+    private static class StaleConnectionException extends IOException {
+        private static final long serialVersionUID = 1L;
+        
+        StaleConnectionException(IOException cause) {
+            super("Pooled connection is stale: " + cause.getMessage(), cause);
+        }
     }
 }
@@ -3,22 +3,51 @@ package com.ztxa.client.service;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonDeserializer;
-import com.google.gson.reflect.TypeToken;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import com.ztxa.client.config.AppConfig;
+import com.ztxa.client.model.ChunkManifest;
 import com.ztxa.client.model.FileInfo;
 import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.apache.hc.client5.http.config.RequestConfig;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpResponse;
+import org.apache.hc.client5.http.config.ConnectionConfig;
 import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpEntity;
 import org.apache.hc.core5.http.ParseException;
 import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.http.io.entity.StringEntity;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.lang.reflect.Type;
+import java.io.InputStreamReader;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 public class FileListService {
     private static final Logger logger = LoggerFactory.getLogger(FileListService.class);
@@ -41,11 +70,66 @@ public class FileListService {
                 }
             })
             .create();
+    // 连接池：列表、详情、清单请求复用长连接；长轮询占用一个连接，其余请求仍有足够的连接并发
+    private static final int MAX_CONNECTIONS = 32;
+    private static final int MAX_CONNECTIONS_PER_ROUTE = 16;
+    private static final Timeout CONNECT_TIMEOUT = Timeout.ofSeconds(5);
+    private static final Timeout RESPONSE_TIMEOUT = Timeout.ofSeconds(30);
+    private static final Timeout POOL_WAIT_TIMEOUT = Timeout.ofSeconds(30);
+    private static final TimeValue CONNECTION_TTL = TimeValue.ofMinutes(5);
+    private static final TimeValue IDLE_EVICT_TIME = TimeValue.ofSeconds(30);
+    private final PoolingHttpClientConnectionManager connectionManager;
     private CloseableHttpClient httpClient;
+    // 并发的 prepareDownload 在虚拟线程上执行，信号量限制同时占用的连接数，排队的请求不会因等待连接超时
+    private final ExecutorService prepareExecutor = Executors.newThreadPerTaskExecutor(
+        Thread.ofVirtual().name("prepare-", 0).factory());
+    private final Semaphore preparePermits = new Semaphore(MAX_CONNECTIONS_PER_ROUTE - 1);
+    // 批量准备：时间窗口内的 prepareDownloadAsync 合并为一次请求；已得到详情的 fileId 缓存在本地，不再重复请求
+    private static final long PREPARE_BATCH_WINDOW_MS = 20;
+    private static final int MAX_PREPARE_BATCH = 1000;
+    private static final int PREPARED_CACHE_SIZE = 10000;
+    private final Map<String, CompletableFuture<FileInfo>> pendingPrepares = new LinkedHashMap<>();
+    private final Map<String, FileInfo> preparedFiles = Collections.synchronizedMap(
+        new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, FileInfo> eldest) {
+                return size() > PREPARED_CACHE_SIZE;
+            }
+        });
+    private volatile boolean batchPrepareSupported = true;
     private static final int DEFAULT_PAGE_SIZE = 100; // 每页数量
+    // 每个列表地址最近一次响应的 ETag，下次请求带上 If-None-Match，列表未变化时服务端只回 304
+    private final Map<String, String> listEtags = new ConcurrentHashMap<>();
+    // 列表监听：长轮询挂起时间、失败重试的退避范围
+    private static final int LONG_POLL_SECONDS = 30;
+    private static final int LONG_POLL_GRACE_SECONDS = 10;
+    private static final long INITIAL_BACKOFF_MS = 1000;
+    private static final long MAX_BACKOFF_MS = 60_000;
+    private static final int STREAM_BATCH_SIZE = 500; // 监听时边解析边分批回调的批大小
+    private volatile boolean watching = false;
+    private volatile HttpGet watchRequest;
+    private Thread watchThread;
     
     public FileListService() {
-        this.httpClient = HttpClients.createDefault();
+        this.connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(MAX_CONNECTIONS)
+                .setMaxConnPerRoute(MAX_CONNECTIONS_PER_ROUTE)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(CONNECT_TIMEOUT)
+                        .setSocketTimeout(RESPONSE_TIMEOUT)
+                        .setTimeToLive(CONNECTION_TTL)
+                        .setValidateAfterInactivity(TimeValue.ofSeconds(2))
+                        .build())
+                .build();
+        this.httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(POOL_WAIT_TIMEOUT)
+                        .setResponseTimeout(RESPONSE_TIMEOUT)
+                        .build())
+                .evictExpiredConnections()
+                .evictIdleConnections(IDLE_EVICT_TIME)
+                .build();
         logger.info("文件列表服务已初始化");
     }
     
@@ -60,35 +144,193 @@ public class FileListService {
      * @return 文件列表，如果返回数量 < pageSize，说明已是最后一批
      */
     public List<FileInfo> fetchFileList(int page, int pageSize) {
+        List<FileInfo> files = new ArrayList<>();
+        requestFileList(page, pageSize, 0, files::add);
+        return files;
+    }
+    
+    /**
+     * 获取文件列表，边接收边解析，每解析出一个文件就交给 consumer，不在内存中保留整个响应
+     * @return 解析出的文件数，请求失败时返回 -1
+     */
+    public int fetchFileList(int page, int pageSize, Consumer<FileInfo> consumer) {
+        ListResponse response = requestFileList(page, pageSize, 0, consumer);
+        return response.failed ? -1 : response.count;
+    }
+    
+    /**
+     * 开始监听文件列表变化
+     * 
+     * <p>服务端支持长轮询（响应头带 X-Long-Poll）时，请求带上 ETag 和 wait 参数挂起在服务端，列表一变化立即返回；
+     * 服务端不支持时退回按 pollInterval 定时轮询；请求失败时按指数退避重试，成功后恢复。</p>
+     * 
+     * @param listener 收到新文件时回调（在监听线程中调用），大列表边解析边分批回调，每批最多 STREAM_BATCH_SIZE 个
+     */
+    public synchronized void startWatching(Consumer<List<FileInfo>> listener) {
+        if (watchThread != null) {
+            return;
+        }
+        watching = true;
+        watchThread = new Thread(() -> watchLoop(listener), "file-list-watcher");
+        watchThread.setDaemon(true);
+        watchThread.start();
+        logger.info("开始监听文件列表变化");
+    }
+    
+    public synchronized void stopWatching() {
+        watching = false;
+        HttpGet pending = watchRequest;
+        if (pending != null) {
+            pending.cancel();
+        }
+        if (watchThread != null) {
+            watchThread.interrupt();
+            watchThread = null;
+        }
+    }
+    
+    private void watchLoop(Consumer<List<FileInfo>> listener) {
+        long backoffMs = 0;
+        while (watching) {
+            List<FileInfo> batch = new ArrayList<>();
+            ListResponse response = requestFileList(1, DEFAULT_PAGE_SIZE, LONG_POLL_SECONDS, fileInfo -> {
+                batch.add(fileInfo);
+                if (batch.size() >= STREAM_BATCH_SIZE) {
+                    deliver(listener, batch);
+                }
+            });
+            if (!watching) {
+                return;
+            }
+            deliver(listener, batch);
+            
+            long delayMs;
+            if (response.failed) {
+                backoffMs = backoffMs == 0 ? INITIAL_BACKOFF_MS : Math.min(backoffMs * 2, MAX_BACKOFF_MS);
+                delayMs = backoffMs;
+                logger.warn("监听文件列表失败，{} ms 后重试", delayMs);
+            } else {
+                backoffMs = 0;
+                // 长轮询立即发起下一次请求；服务端不支持时按轮询间隔定时请求
+                delayMs = response.longPoll ? 0 : AppConfig.getInstance().getPollInterval() * 1000L;
+            }
+            if (delayMs > 0) {
+                try {
+                    Thread.sleep(delayMs);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+    
+    private void deliver(Consumer<List<FileInfo>> listener, List<FileInfo> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            listener.accept(new ArrayList<>(batch));
+        } catch (Exception e) {
+            logger.error("处理文件列表失败", e);
+        }
+        batch.clear();
+    }
+    
+    /**
+     * 请求文件列表
+     * @param waitSeconds 大于 0 时请求服务端长轮询，列表未变化时最多挂起这么久
+     * @param consumer 逐个接收解析出的文件
+     */
+    private ListResponse requestFileList(int page, int pageSize, int waitSeconds, Consumer<FileInfo> consumer) {
         AppConfig config = AppConfig.getInstance();
         String url = config.getServerUrl() + "/downloadApi/files?page=" + page + "&pageSize=" + pageSize;
-        logger.debug("请求文件列表: {} (page={}, pageSize={})", url, page, pageSize);
+        logger.debug("请求文件列表: {} (page={}, pageSize={}, wait={})", url, page, pageSize, waitSeconds);
         
-        HttpGet request = new HttpGet(url);
+        HttpGet request = new HttpGet(waitSeconds > 0 ? url + "&wait=" + waitSeconds : url);
         request.setHeader("X-App-Key", config.getAppKey());
+        String etag = listEtags.get(url);
+        if (etag != null) {
+            request.setHeader("If-None-Match", etag);
+        }
+        if (waitSeconds > 0) {
+            // 响应超时要长于服务端挂起时间
+            request.setConfig(RequestConfig.custom()
+                    .setResponseTimeout(Timeout.ofSeconds(waitSeconds + LONG_POLL_GRACE_SECONDS))
+                    .build());
+            watchRequest = request;
+        }
         
         try (CloseableHttpResponse response = httpClient.execute(request)) {
             int statusCode = response.getCode();
             logger.debug("文件列表响应状态码: {}", statusCode);
+            boolean longPoll = response.getFirstHeader("X-Long-Poll") != null;
+            
+            if (statusCode == 304) {
+                // 与上次相同，没有新文件，不再下载和解析列表
+                logger.debug("文件列表未变化 (ETag={})", etag);
+                return new ListResponse(0, longPoll, false);
+            }
+            // 列表解析成功后才记住 ETag，避免解析失败后被 304 跳过
+            listEtags.remove(url);
             
             if (statusCode == 200) {
-                String json = EntityUtils.toString(response.getEntity());
-                logger.debug("后端返回的文件列表数据: {}", json);
-                // 后端返回 Set，但 JSON 解析为 List 也完全兼容
-                Type listType = new TypeToken<List<FileInfo>>(){}.getType();
-                List<FileInfo> files = gson.fromJson(json, listType);
-                logger.info("成功获取文件列表，共 {} 个文件", files != null ? files.size() : 0);
-                return files;
+                int count = readFileList(response.getEntity(), consumer);
+                logger.info("成功获取文件列表，共 {} 个文件", count);
+                rememberEtag(url, response.getFirstHeader("ETag"));
+                return new ListResponse(count, longPoll, false);
             } else if (statusCode == 204) {
                 logger.debug("服务端返回 204 No Content，暂无文件");
-                return new ArrayList<>();
+                rememberEtag(url, response.getFirstHeader("ETag"));
+                return new ListResponse(0, longPoll, false);
             } else {
                 logger.error("获取文件列表失败，状态码: {}", statusCode);
-                return new ArrayList<>();
+                return new ListResponse(0, false, true);
             }
-        } catch (IOException | ParseException e) {
-            logger.error("请求文件列表发生异常", e);
-            return new ArrayList<>();
+        } catch (IOException | JsonParseException | IllegalStateException e) {
+            if (waitSeconds == 0) {
+                logger.error("请求文件列表发生异常", e);
+            } else if (watching) {
+                // 监听失败会按退避间隔反复重试，只记录原因
+                logger.warn("监听文件列表请求异常: {}", e.getMessage());
+            }
+            return new ListResponse(0, false, true);
+        } finally {
+            if (waitSeconds > 0) {
+                watchRequest = null;
+            }
+        }
+    }
+    
+    /**
+     * 用 JsonReader 直接读取响应流中的数组（后端返回 Set，同样是 JSON 数组），逐个元素解析后交给 consumer
+     * @return 解析出的文件数
+     */
+    private int readFileList(HttpEntity entity, Consumer<FileInfo> consumer) throws IOException {
+        if (entity == null) {
+            return 0;
+        }
+        int count = 0;
+        try (JsonReader reader = new JsonReader(new InputStreamReader(entity.getContent(), StandardCharsets.UTF_8))) {
+            if (reader.peek() == JsonToken.NULL) {
+                return 0;
+            }
+            reader.beginArray();
+            while (reader.hasNext()) {
+                FileInfo fileInfo = gson.fromJson(reader, FileInfo.class);
+                if (fileInfo != null) {
+                    consumer.accept(fileInfo);
+                    count++;
+                }
+            }
+            reader.endArray();
+        }
+        logger.debug("文件列表解析完成: {} 个文件", count);
+        return count;
+    }
+    
+    private void rememberEtag(String url, Header etagHeader) {
+        if (etagHeader != null) {
+            listEtags.put(url, etagHeader.getValue());
         }
     }
     
@@ -99,7 +341,7 @@ public class FileListService {
      */
     public FileInfo prepareDownload(String fileId) {
         AppConfig config = AppConfig.getInstance();
-        String url = config.getServerUrl() + "/downloadApi/files/" + fileId + "/prepare";
+        String url = config.getServerUrl() + "/downloadApi/files/" + encodePathSegment(fileId) + "/prepare";
         logger.debug("准备下载文件: fileId={}, url={}", fileId, url);
         
         HttpGet request = new HttpGet(url);
@@ -110,6 +352,10 @@ public class FileListService {
                 String json = EntityUtils.toString(response.getEntity());
                 logger.debug("后端返回的文件详情数据: {}", json);
                 FileInfo fileInfo = gson.fromJson(json, FileInfo.class);
+                if (fileInfo.getFileId() == null) {
+                    fileInfo.setFileId(fileId);
+                }
+                preparedFiles.put(fileId, fileInfo);
                 logger.info("文件准备成功: {} ({})", fileInfo.getFileName(), fileInfo.getFileSize());
                 return fileInfo;
             } else if (response.getCode() == 404) {
@@ -123,6 +369,199 @@ public class FileListService {
         return null;
     }
     
+    /**
+     * 异步获取文件详情
+     * 短时间内的多次调用合并成一次批量准备请求；服务端不支持批量接口时逐个请求，在连接池中并发执行
+     * @return 完成时得到 FileInfo，文件不存在或请求失败时为 null
+     */
+    public CompletableFuture<FileInfo> prepareDownloadAsync(String fileId) {
+        FileInfo known = preparedFiles.get(fileId);
+        if (known != null) {
+            return CompletableFuture.completedFuture(known);
+        }
+        synchronized (pendingPrepares) {
+            CompletableFuture<FileInfo> future = pendingPrepares.get(fileId);
+            if (future != null) {
+                return future;
+            }
+            future = new CompletableFuture<>();
+            pendingPrepares.put(fileId, future);
+            if (pendingPrepares.size() == 1) {
+                CompletableFuture.delayedExecutor(PREPARE_BATCH_WINDOW_MS, TimeUnit.MILLISECONDS, prepareExecutor)
+                        .execute(this::flushPendingPrepares);
+            } else if (pendingPrepares.size() >= MAX_PREPARE_BATCH) {
+                prepareExecutor.execute(this::flushPendingPrepares);
+            }
+            return future;
+        }
+    }
+    
+    /**
+     * 批量获取文件详情：去掉重复的和本地已有详情的 fileId，其余按批请求，结果边解析边交给 consumer
+     * @return 得到详情的文件数（包括本地已有的）
+     */
+    public int prepareDownloads(Collection<String> fileIds, Consumer<FileInfo> consumer) {
+        List<String> unknown = new ArrayList<>();
+        int count = 0;
+        for (String fileId : new LinkedHashSet<>(fileIds)) {
+            FileInfo known = preparedFiles.get(fileId);
+            if (known != null) {
+                consumer.accept(known);
+                count++;
+            } else {
+                unknown.add(fileId);
+            }
+        }
+        for (int from = 0; from < unknown.size(); from += MAX_PREPARE_BATCH) {
+            List<String> batch = unknown.subList(from, Math.min(unknown.size(), from + MAX_PREPARE_BATCH));
+            int prepared = batchPrepareSupported ? requestBatchPrepare(batch, consumer) : -1;
+            if (prepared < 0) {
+                prepared = prepareEach(batch, consumer);
+            }
+            count += prepared;
+        }
+        return count;
+    }
+    
+    private void flushPendingPrepares() {
+        Map<String, CompletableFuture<FileInfo>> batch;
+        synchronized (pendingPrepares) {
+            if (pendingPrepares.isEmpty()) {
+                return;
+            }
+            batch = new LinkedHashMap<>(pendingPrepares);
+            pendingPrepares.clear();
+        }
+        Consumer<FileInfo> complete = fileInfo -> {
+            CompletableFuture<FileInfo> future = batch.get(fileInfo.getFileId());
+            if (future != null) {
+                future.complete(fileInfo);
+            }
+        };
+        if (!batchPrepareSupported || requestBatchPrepare(batch.keySet(), complete) < 0) {
+            List<String> remaining = new ArrayList<>();
+            batch.forEach((fileId, future) -> {
+                if (!future.isDone()) {
+                    remaining.add(fileId);
+                }
+            });
+            prepareEach(remaining, complete);
+        }
+        // 服务端没有返回的文件视为不存在
+        batch.values().forEach(future -> future.complete(null));
+    }
+    
+    /**
+     * 逐个请求文件详情（服务端不支持批量接口时），在虚拟线程上并发执行
+     * @return 得到详情的文件数
+     */
+    private int prepareEach(Collection<String> fileIds, Consumer<FileInfo> consumer) {
+        List<CompletableFuture<FileInfo>> futures = new ArrayList<>();
+        for (String fileId : fileIds) {
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    preparePermits.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+                try {
+                    return prepareDownload(fileId);
+                } finally {
+                    preparePermits.release();
+                }
+            }, prepareExecutor));
+        }
+        int count = 0;
+        for (CompletableFuture<FileInfo> future : futures) {
+            FileInfo fileInfo = future.join();
+            if (fileInfo != null) {
+                consumer.accept(fileInfo);
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * 调用批量准备接口：POST fileId 数组，响应为文件详情数组，不存在的文件不返回
+     * @return 得到详情的文件数；服务端不支持或请求失败时返回 -1
+     */
+    private int requestBatchPrepare(Collection<String> fileIds, Consumer<FileInfo> consumer) {
+        AppConfig config = AppConfig.getInstance();
+        String url = config.getServerUrl() + "/downloadApi/prepare";
+        logger.debug("批量准备下载: {} 个文件", fileIds.size());
+        
+        HttpPost request = new HttpPost(url);
+        request.setHeader("X-App-Key", config.getAppKey());
+        request.setEntity(new StringEntity(gson.toJson(fileIds), ContentType.APPLICATION_JSON));
+        
+        try (CloseableHttpResponse response = httpClient.execute(request)) {
+            int statusCode = response.getCode();
+            if (statusCode == 200) {
+                int count = readFileList(response.getEntity(), fileInfo -> {
+                    if (fileInfo.getFileId() != null) {
+                        preparedFiles.put(fileInfo.getFileId(), fileInfo);
+                    }
+                    consumer.accept(fileInfo);
+                });
+                logger.info("批量准备完成: 请求 {} 个，得到 {} 个", fileIds.size(), count);
+                return count;
+            }
+            if (statusCode == 404 || statusCode == 405 || statusCode == 501) {
+                batchPrepareSupported = false;
+                logger.info("服务端不支持批量准备接口 (状态码 {})，改为逐个请求", statusCode);
+            } else {
+                logger.warn("批量准备失败，状态码: {}", statusCode);
+            }
+        } catch (IOException | JsonParseException | IllegalStateException e) {
+            logger.warn("批量准备请求异常: {}", e.getMessage());
+        }
+        return -1;
+    }
+    
+    /**
+     * 连接池状态（已租用、空闲、等待中的连接数）
+     */
+    public PoolStats getPoolStats() {
+        return connectionManager.getTotalStats();
+    }
+    
+    private static String encodePathSegment(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8).replace("+", "%20");
+    }
+    
+    /**
+     * 获取文件的分块清单（用于续传校验）
+     * @param fileId 文件ID
+     * @return 分块清单，服务端不支持、请求失败或返回的清单无法解析、不完整时返回 null
+     */
+    public ChunkManifest fetchManifest(String fileId) {
+        AppConfig config = AppConfig.getInstance();
+        String url = config.getServerUrl() + "/downloadApi/files/" + encodePathSegment(fileId) + "/manifest";
+        logger.debug("获取分块清单: fileId={}, url={}", fileId, url);
+        
+        HttpGet request = new HttpGet(url);
+        request.setHeader("X-App-Key", config.getAppKey());
+        
+        try (CloseableHttpResponse response = httpClient.execute(request)) {
+            if (response.getCode() == 200) {
+                ChunkManifest manifest = gson.fromJson(EntityUtils.toString(response.getEntity()), ChunkManifest.class);
+                if (manifest == null || !manifest.isComplete()) {
+                    // 空响应或缺少字段的清单无法用于校验，按没有清单处理
+                    logger.warn("分块清单不完整，忽略: fileId={}", fileId);
+                    return null;
+                }
+                logger.debug("分块清单: fileId={}, chunks={}, root={}", fileId, manifest.getChunkCount(), manifest.getRootHash());
+                return manifest;
+            }
+            logger.debug("服务端未提供分块清单: fileId={}, 状态码={}", fileId, response.getCode());
+        } catch (IOException | ParseException | JsonParseException e) {
+            logger.warn("获取分块清单失败: fileId={}, {}", fileId, e.getMessage());
+        }
+        return null;
+    }
+    
     /**
      * 获取所有文件列表（兼容旧版本，不推荐用于大数据量）
      * @return 文件列表
@@ -131,9 +570,27 @@ public class FileListService {
         return fetchFileList(1, DEFAULT_PAGE_SIZE);
     }
     
+    /**
+     * 一次列表请求的结果
+     */
+    private static class ListResponse {
+        final int count;              // 解析出的文件数
+        final boolean longPoll;       // 服务端是否支持长轮询
+        final boolean failed;
+        
+        ListResponse(int count, boolean longPoll, boolean failed) {
+            this.count = count;
+            this.longPoll = longPoll;
+            this.failed = failed;
+        }
+    }
+    
     public void close() {
+        stopWatching();
+        prepareExecutor.shutdownNow();
         try {
             if (httpClient != null) {
+                logger.debug("关闭前连接池状态: {}", getPoolStats());
                 httpClient.close();
                 logger.info("文件列表服务已关闭");
             }
@@ -0,0 +1,176 @@
+package com.ztxa.client.service;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.ztxa.client.config.AppConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+/**
+ * 下载中的临时文件
+ * 数据先写入 "目标文件.part"，旁边的 "目标文件.part.state" 记录下载的是哪个文件、已经写入了多少；
+ * 下载完成后按持久化策略刷盘，再原子地重命名为目标文件。目标路径上因此只会出现完整的文件。
+ *
+ * <p>续传只信任状态记录：记录中的文件标识、大小和校验和与当前任务一致时，直接从记录的长度继续，
+ * 不需要重新读取已有数据；记录之后多写入的数据会被覆盖。没有记录或记录不一致的临时文件不续传。
+ * 目标路径上已有的文件（可能是用户自己的同名文件）从不作为续传数据使用。</p>
+ *
+ * <p>持久化策略见 {@link AppConfig#getDurabilityPolicy()}：NONE 不主动刷盘；COMMIT 重命名前刷盘数据、
+ * 重命名后刷盘所在目录，系统崩溃后不会出现内容不完整的目标文件，也不会丢失已完成的重命名；
+ * CHECKPOINT 每次保存状态前也刷盘，断电后记录的长度同样可信。</p>
+ */
+public class PartFile {
+    private static final Logger logger = LoggerFactory.getLogger(PartFile.class);
+    public static final String PART_SUFFIX = ".part";
+    private static final String STATE_SUFFIX = ".state";
+    private static final Gson gson = new Gson();
+
+    private final Path target;
+    private final Path part;
+    private final Path state;
+    private final String fileId;
+    private final long fileSize;
+    private final String checksum;
+
+    public PartFile(String savePath, String fileId, long fileSize, String checksum) {
+        this.target = Path.of(savePath);
+        this.part = Path.of(savePath + PART_SUFFIX);
+        this.state = Path.of(savePath + PART_SUFFIX + STATE_SUFFIX);
+        this.fileId = fileId;
+        this.fileSize = fileSize;
+        this.checksum = checksum;
+    }
+
+    public File getFile() {
+        return part.toFile();
+    }
+
+    public boolean exists() {
+        return Files.exists(part);
+    }
+
+    /**
+     * 读取状态记录中的续传位置
+     * @return 记录属于同一个文件时返回记录的长度，否则返回 -1
+     */
+    public long loadResumePosition() {
+        if (!Files.exists(state) || !Files.exists(part)) {
+            return -1;
+        }
+        try {
+            State record = gson.fromJson(Files.readString(state, StandardCharsets.UTF_8), State.class);
+            if (record == null || !Objects.equals(record.fileId, fileId) || record.fileSize != fileSize
+                    || !Objects.equals(record.checksum, checksum)) {
+                logger.info("临时文件的状态记录与当前任务不一致，不使用: {}", state);
+                return -1;
+            }
+            long length = Math.min(record.length, Files.size(part));
+            return Math.max(0, length);
+        } catch (IOException | JsonParseException e) {
+            logger.warn("读取临时文件状态记录失败: {}", state, e);
+            return -1;
+        }
+    }
+
+    /**
+     * 记录已经写入的长度，写入临时记录后原子替换，不会留下半个记录。
+     * CHECKPOINT 策略下先把数据刷到磁盘，保证记录的长度不超过磁盘上真实存在的数据
+     */
+    public void checkpoint(long length) {
+        try {
+            if ("CHECKPOINT".equals(AppConfig.getInstance().getDurabilityPolicy())) {
+                force();
+            }
+            State record = new State();
+            record.fileId = fileId;
+            record.fileSize = fileSize;
+            record.checksum = checksum;
+            record.length = length;
+            record.updatedAt = System.currentTimeMillis();
+            Path tmp = Path.of(state + ".tmp");
+            Files.writeString(tmp, gson.toJson(record), StandardCharsets.UTF_8);
+            move(tmp, state);
+        } catch (IOException e) {
+            // 状态记录只影响续传位置，保存失败时下次从上一次保存的记录继续，没有记录时重新下载
+            logger.warn("保存临时文件状态失败: {}", state, e);
+        }
+    }
+
+    /**
+     * 下载完成：按持久化策略刷盘后原子地替换目标文件，并删除状态记录。调用前必须关闭对临时文件的写入
+     */
+    public void commit() throws IOException {
+        boolean durable = !"NONE".equals(AppConfig.getInstance().getDurabilityPolicy());
+        if (durable) {
+            force();
+        }
+        move(part, target);
+        if (durable) {
+            // 重命名记录在目录中，刷盘目录后重命名本身才不会因系统崩溃丢失
+            forceDirectory(target.toAbsolutePath().getParent());
+        }
+        Files.deleteIfExists(state);
+    }
+
+    /**
+     * 丢弃临时文件和状态记录
+     */
+    public void discard() {
+        try {
+            Files.deleteIfExists(part);
+            Files.deleteIfExists(state);
+        } catch (IOException e) {
+            logger.warn("删除临时文件失败: {}", part, e);
+        }
+    }
+
+    private void force() throws IOException {
+        try (FileChannel channel = FileChannel.open(part, StandardOpenOption.WRITE)) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * 刷盘目录项。Windows 上无法以文件通道打开目录（NTFS 的重命名由文件系统日志保证），直接跳过
+     */
+    private static void forceDirectory(Path dir) {
+        if (dir == null || System.getProperty("os.name", "").toLowerCase().startsWith("windows")) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            logger.warn("刷盘目录失败: {}", dir, e);
+        }
+    }
+
+    private static void move(Path from, Path to) throws IOException {
+        try {
+            Files.move(from, to, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * 状态记录（JSON）
+     */
+    private static class State {
+        String fileId;
+        long fileSize;
+        String checksum;
+        long length;
+        long updatedAt;
+    }
+}
@@ -12,6 +12,7 @@ import java.util.Map;
 /**
  * 处理自定义协议 ztxa://
  * 格式：ztxa://download?fileId=xxx&fileName=xxx&fileSize=xxx
+ * 只带 fileId 时返回的 FileInfo 没有文件名，由调用方通过 prepareDownload 向服务端查询详情
  */
 public class ProtocolHandlerService {
     private static final Logger logger = LoggerFactory.getLogger(ProtocolHandlerService.class);
@@ -41,13 +42,16 @@ public class ProtocolHandlerService {
             String fileName = params.get("fileName");
             String fileSizeStr = params.get("fileSize");
 
-            if (fileId == null || fileName == null || fileSizeStr == null) {
+            if (fileId == null) {
                 logger.warn("协议参数不完整: {}", url);
                 return null;
             }
 
             FileInfo info = new FileInfo();
             info.setFileId(fileId);
+            if (fileName == null || fileSizeStr == null) {
+                return info;
+            }
             info.setFileName(URLDecoder.decode(fileName, StandardCharsets.UTF_8));
             info.setFileSize(Long.parseLong(fileSizeStr));
             info.setFilePath(info.getFileName()); // 默认相对路径同名
@@ -0,0 +1,175 @@
+package com.ztxa.client.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.function.LongSupplier;
+
+/**
+ * 下载过程中的增量校验
+ * 按文件顺序计算摘要：写入位置正好接在已校验位置之后的数据直接在读循环中计算，不产生额外 I/O；
+ * 其余数据（续传前已存在的前缀、分段下载中后面的分段）由 {@link #follow} 在后台从文件中补读。
+ *
+ * <p>服务端公布的校验和支持 "sha256:hex" 这类带算法前缀的写法，也可以只给十六进制摘要，
+ * 此时按长度识别为 MD5 / SHA-1 / SHA-256；无法识别的值（例如时间戳）不做校验。</p>
+ */
+public class StreamingChecksum {
+    private static final int CATCH_UP_BUFFER_SIZE = 1024 * 1024;
+    private static final long FOLLOW_INTERVAL_MS = 100;
+
+    private final String algorithm;
+    private final String expected;
+    private final MessageDigest digest;
+    private long hashedPosition = 0;
+    private volatile boolean stopped = false;
+
+    private StreamingChecksum(String algorithm, String expected) throws NoSuchAlgorithmException {
+        this.algorithm = algorithm;
+        this.expected = expected;
+        this.digest = MessageDigest.getInstance(algorithm);
+    }
+
+    /**
+     * 根据服务端公布的校验和创建校验器
+     * @return 无法识别的校验和返回 null
+     */
+    public static StreamingChecksum forAdvertised(String checksum) {
+        if (checksum == null || checksum.isBlank()) {
+            return null;
+        }
+        String value = checksum.trim();
+        String algorithm = null;
+        int colon = value.indexOf(':');
+        if (colon > 0) {
+            algorithm = algorithmName(value.substring(0, colon));
+            value = value.substring(colon + 1);
+            if (algorithm == null) {
+                return null;
+            }
+        }
+        value = value.toLowerCase(Locale.ROOT);
+        if (!isHex(value)) {
+            return null;
+        }
+        if (algorithm == null) {
+            algorithm = switch (value.length()) {
+                case 32 -> "MD5";
+                case 40 -> "SHA-1";
+                case 64 -> "SHA-256";
+                default -> null;
+            };
+            if (algorithm == null) {
+                return null;
+            }
+        }
+        try {
+            return new StreamingChecksum(algorithm, value);
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    public synchronized long getHashedPosition() {
+        return hashedPosition;
+    }
+
+    /**
+     * 读循环中写入文件后调用：数据正好接在已校验位置之后时直接计入摘要，否则留给后台补读。
+     * 计入摘要时会读完 data（position 移到 limit）
+     */
+    public synchronized void update(long position, ByteBuffer data) {
+        if (position == hashedPosition) {
+            hashedPosition += data.remaining();
+            digest.update(data);
+        }
+    }
+
+    /**
+     * 在后台线程中跟随下载补读：落后时连续补读到 frontier 给出的已写入位置，追上后才等待，
+     * 直到覆盖整个文件或被 stop。追上后读循环的下一次写入正好接在已校验位置之后，转为在读循环中计算
+     * @param frontier 从文件开头起连续写入完成的位置，每次写入后更新
+     */
+    public void follow(FileChannel channel, LongSupplier frontier, long fileSize) throws IOException, InterruptedException {
+        while (!stopped && getHashedPosition() < fileSize) {
+            long upTo = frontier.getAsLong();
+            if (getHashedPosition() < upTo) {
+                catchUp(channel, upTo, true);
+            } else {
+                Thread.sleep(FOLLOW_INTERVAL_MS);
+            }
+        }
+    }
+
+    /**
+     * 从文件中补读 [已校验位置, upTo) 的数据计入摘要。
+     * 读文件时不持有锁，读循环可以继续写入；补读追上写入位置后，后续数据自然转为在读循环中计算
+     */
+    private void catchUp(FileChannel channel, long upTo, boolean stoppable) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(CATCH_UP_BUFFER_SIZE);
+        while (!(stoppable && stopped)) {
+            long from = getHashedPosition();
+            if (from >= upTo) {
+                return;
+            }
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), upTo - from));
+            int read = channel.read(buffer, from);
+            if (read <= 0) {
+                throw new IOException("校验时读取文件失败，位置: " + from);
+            }
+            synchronized (this) {
+                if (hashedPosition == from) {
+                    digest.update(buffer.array(), 0, read);
+                    hashedPosition += read;
+                }
+            }
+        }
+    }
+
+    /**
+     * 停止后台补读（下载结束、失败或取消时调用）
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * 补读剩余部分并与公布的校验和比较，调用前应先停止后台补读
+     */
+    public boolean verify(FileChannel channel, long fileSize) throws IOException {
+        catchUp(channel, fileSize, false);
+        synchronized (this) {
+            return hashedPosition == fileSize && expected.equals(HexFormat.of().formatHex(digest.digest()));
+        }
+    }
+
+    private static String algorithmName(String name) {
+        return switch (name.toLowerCase(Locale.ROOT).replace("-", "")) {
+            case "md5" -> "MD5";
+            case "sha1" -> "SHA-1";
+            case "sha256" -> "SHA-256";
+            case "sha512" -> "SHA-512";
+            default -> null;
+        };
+    }
+
+    private static boolean isHex(String value) {
+        if (value.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (Character.digit(value.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
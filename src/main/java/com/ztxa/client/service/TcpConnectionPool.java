@@ -0,0 +1,319 @@
+package com.ztxa.client.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SocketChannel;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TCP 数据连接池
+ * 带结束位置的请求（长度明确）读完后连接仍可继续发送下一个请求，归还到池中供后续文件复用，
+ * 下载大量小文件时省去每个文件一次的握手和慢启动。
+ *
+ * <p>每个服务端最多保留 {@link #MAX_IDLE_PER_SERVER} 条空闲连接，优先借出最近归还的连接；
+ * 空闲超过 {@link #IDLE_TIMEOUT_MS} 的连接在借出时丢弃（服务端也会关闭长时间空闲的连接）。</p>
+ *
+ * <p>连接基于阻塞模式的 SocketChannel，每条连接带一块直接内存读缓冲区，随连接一起复用：
+ * 文件数据通过 {@link Connection#read(int)} 从 Socket 直接读入该缓冲区再写入 FileChannel，不经过堆上的 byte[]。
+ * SocketChannel 的读取不支持 SO_TIMEOUT，改由后台线程检查：借出的连接阻塞读取超过 {@link #READ_TIMEOUT_MS}
+ * 时关闭连接，读取方得到 SocketTimeoutException。</p>
+ *
+ * <p>整个客户端共用一个连接池（各个下载服务复用同一批空闲连接和同一个超时检查线程），
+ * 应用退出时调用 {@link #close()} 停止检查线程并关闭空闲连接。</p>
+ */
+public class TcpConnectionPool {
+    private static final Logger logger = LoggerFactory.getLogger(TcpConnectionPool.class);
+    // 每条连接的直接内存读缓冲区：256KB 时每 GB 的读写系统调用比 64KB 少四分之三
+    public static final int READ_BUFFER_SIZE = 256 * 1024;
+    private static final int MAX_IDLE_PER_SERVER = 4;
+    private static final long IDLE_TIMEOUT_MS = 30_000;
+    private static final long READ_TIMEOUT_MS = 30_000; // 读取超时，防止网络卡死导致线程永久阻塞
+    private static final long TIMEOUT_CHECK_INTERVAL_MS = 1_000;
+
+    private final int bufferSize;
+    private final Map<String, Deque<Connection>> idleConnections = new ConcurrentHashMap<>();
+    // 已借出的连接，由超时检查线程检查是否读取超时
+    private final Set<Connection> borrowed = ConcurrentHashMap.newKeySet();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+    private final Thread timeoutChecker;
+    private volatile boolean closed;
+
+    private static TcpConnectionPool instance;
+
+    private TcpConnectionPool(int bufferSize) {
+        this.bufferSize = bufferSize;
+        this.timeoutChecker = Thread.ofVirtual().name("tcp-read-timeout").start(this::closeTimedOutReads);
+    }
+
+    public static synchronized TcpConnectionPool getInstance() {
+        if (instance == null) {
+            instance = new TcpConnectionPool(READ_BUFFER_SIZE);
+        }
+        return instance;
+    }
+
+    /**
+     * 借出一条连接：有未过期的空闲连接时复用，否则新建
+     */
+    public Connection acquire(String host, int port) throws IOException {
+        if (closed) {
+            throw new IOException("Connection pool is closed");
+        }
+        String key = host + ":" + port;
+        Deque<Connection> idle = idleConnections.get(key);
+        if (idle != null) {
+            Connection connection;
+            while ((connection = idle.pollLast()) != null) {
+                if (!connection.socket.isClosed()
+                        && System.currentTimeMillis() - connection.idleSince <= IDLE_TIMEOUT_MS) {
+                    connection.reused = true;
+                    reused.incrementAndGet();
+                    borrowed.add(connection);
+                    return connection;
+                }
+                connection.close();
+            }
+        }
+
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+        channel.socket().setTcpNoDelay(true); // 请求包很小，不等待 Nagle 合并
+        created.incrementAndGet();
+        Connection connection = new Connection(key, channel, bufferSize);
+        borrowed.add(connection);
+        return connection;
+    }
+
+    /**
+     * 归还连接：调用方必须已读完本次响应的全部数据，否则应直接 close
+     */
+    public void release(Connection connection) {
+        borrowed.remove(connection);
+        if (connection.socket.isClosed()) {
+            return;
+        }
+        if (closed) {
+            connection.close();
+            return;
+        }
+        Deque<Connection> idle = idleConnections.computeIfAbsent(connection.key, k -> new ConcurrentLinkedDeque<>());
+        if (idle.size() >= MAX_IDLE_PER_SERVER) {
+            connection.close();
+            return;
+        }
+        connection.idleSince = System.currentTimeMillis();
+        idle.offerLast(connection);
+        // 与 close() 并发时，已清空的空闲队列中可能又放入了连接
+        if (closed && idle.remove(connection)) {
+            connection.close();
+        }
+    }
+
+    /**
+     * 关闭连接池：停止超时检查线程，关闭空闲连接。仍在使用的连接由使用方关闭（应用退出时不让正在进行的下载
+     * 因连接被关闭而记录为失败）；之后借出连接会失败，归还的连接直接关闭
+     */
+    public void close() {
+        closed = true;
+        timeoutChecker.interrupt();
+        for (Deque<Connection> idle : idleConnections.values()) {
+            Connection connection;
+            while ((connection = idle.pollFirst()) != null) {
+                connection.close();
+            }
+        }
+        logger.info("TCP 连接池已关闭: 新建 {} 条, 复用 {} 次", created.get(), reused.get());
+    }
+
+    /**
+     * 已新建的连接数
+     */
+    public long getCreatedCount() {
+        return created.get();
+    }
+
+    /**
+     * 复用空闲连接的次数
+     */
+    public long getReusedCount() {
+        return reused.get();
+    }
+
+    /**
+     * 关闭阻塞读取超时的连接；已关闭（调用方直接 close）的连接从借出列表中移除
+     */
+    private void closeTimedOutReads() {
+        while (!closed) {
+            try {
+                Thread.sleep(TIMEOUT_CHECK_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = System.nanoTime();
+            borrowed.removeIf(connection -> connection.socket.isClosed());
+            for (Connection connection : borrowed) {
+                long deadline = connection.readDeadline;
+                if (deadline != 0 && now - deadline > 0) {
+                    logger.warn("读取超时，关闭连接: {}", connection.key);
+                    connection.timedOut = true;
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * 一条数据连接，读缓冲区在整个连接生命周期内复用。
+     * 协议头通过 {@link #getInput()} 读取，文件数据通过 {@link #read(int)} 读取，两者共用同一个缓冲区
+     */
+    public static class Connection {
+        private final String key;
+        private final SocketChannel channel;
+        private final Socket socket;
+        // position 到 limit 之间是已从 Socket 读入、还没有被取走的数据
+        private final ByteBuffer readBuffer;
+        // read 返回给调用方的视图，避免每次读取都创建 ByteBuffer
+        private final ByteBuffer view;
+        private final DataInputStream input;
+        private final OutputStream output;
+        private volatile long readDeadline; // 正在阻塞读取时为超时时刻（System.nanoTime），否则为 0
+        private volatile boolean timedOut;
+        private long idleSince;
+        private boolean reused;
+
+        Connection(String key, SocketChannel channel, int bufferSize) throws IOException {
+            this.key = key;
+            this.channel = channel;
+            this.socket = channel.socket();
+            this.readBuffer = ByteBuffer.allocateDirect(bufferSize).flip();
+            this.view = readBuffer.duplicate();
+            this.input = new DataInputStream(new ChannelInputStream());
+            this.output = socket.getOutputStream();
+        }
+
+        public Socket getSocket() {
+            return socket;
+        }
+
+        public DataInputStream getInput() {
+            return input;
+        }
+
+        /**
+         * 读取最多 maxBytes 字节的文件数据：缓冲区中有剩余数据时先取剩余数据，否则从 Socket 直接读入缓冲区。
+         * 返回的视图在下一次读取前有效
+         * @return 数据视图（至少 1 字节），连接被对端关闭时返回 null
+         */
+        public ByteBuffer read(int maxBytes) throws IOException {
+            if (!readBuffer.hasRemaining() && fill(maxBytes) == -1) {
+                return null;
+            }
+            int start = readBuffer.position();
+            int end = start + Math.min(maxBytes, readBuffer.remaining());
+            view.limit(end).position(start);
+            readBuffer.position(end);
+            return view;
+        }
+
+        /**
+         * 从 Socket 读入最多 maxBytes 字节到空的缓冲区
+         * @return 读入的字节数，对端关闭时返回 -1
+         */
+        private int fill(int maxBytes) throws IOException {
+            readBuffer.clear().limit(Math.min(readBuffer.capacity(), Math.max(1, maxBytes)));
+            readDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(READ_TIMEOUT_MS);
+            try {
+                return channel.read(readBuffer);
+            } catch (ClosedChannelException e) {
+                if (timedOut) {
+                    throw new SocketTimeoutException("Read timed out");
+                }
+                throw e;
+            } finally {
+                readDeadline = 0;
+                readBuffer.flip();
+            }
+        }
+
+        public OutputStream getOutput() {
+            return output;
+        }
+
+        /**
+         * 是否是从池中复用的连接（服务端可能已经关闭了它）
+         */
+        public boolean isReused() {
+            return reused;
+        }
+
+        public void close() {
+            try {
+                if (!socket.isClosed()) {
+                    socket.close();
+                }
+            } catch (IOException e) {
+                logger.warn("关闭 Socket 时发生错误", e);
+            }
+        }
+
+        /**
+         * 协议头的输入流，从读缓冲区取数据，缓冲区空时按整个缓冲区大小读入
+         */
+        private class ChannelInputStream extends InputStream {
+            @Override
+            public int read() throws IOException {
+                if (!readBuffer.hasRemaining() && fill(readBuffer.capacity()) == -1) {
+                    return -1;
+                }
+                return readBuffer.get() & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                if (!readBuffer.hasRemaining() && fill(readBuffer.capacity()) == -1) {
+                    return -1;
+                }
+                int n = Math.min(len, readBuffer.remaining());
+                readBuffer.get(b, off, n);
+                return n;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                if (n <= 0) {
+                    return 0;
+                }
+                if (!readBuffer.hasRemaining() && fill(readBuffer.capacity()) == -1) {
+                    return 0;
+                }
+                int skipped = (int) Math.min(n, readBuffer.remaining());
+                readBuffer.position(readBuffer.position() + skipped);
+                return skipped;
+            }
+
+            @Override
+            public int available() {
+                return readBuffer.remaining();
+            }
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.ztxa.client.ui;
 
 import com.ztxa.client.config.AppConfig;
 import com.ztxa.client.database.DownloadTaskDAO;
+import com.ztxa.client.database.TaskProgressWriter;
 import com.ztxa.client.model.DownloadTask;
 import com.ztxa.client.model.FileInfo;
 import com.ztxa.client.service.FileDownloadService;
@@ -26,7 +27,7 @@ import java.util.concurrent.Executors;
  * 1. 懒加载 - 按需从服务器获取数据
  * 2. 虚拟滚动 - TableView自带虚拟滚动，只渲染可见行
  * 3. 分页加载 - 滚动到底部时自动加载下一页
- * 4. 索引优化 - 数据库查询使用索引
+ * 4. 索引优化 - 历史任务按 (created_at, task_id) 游标分页，直接在索引上定位
  * 5. 异步加载 - 不阻塞UI线程
  */
 public class OptimizedTransferListController {
@@ -59,18 +60,21 @@ public class OptimizedTransferListController {
     private boolean isLoading = false;
     private boolean hasMoreData = true;
     private int totalFiles = 0;
+    // 本地历史任务的分页游标：已加载的最后一个任务
+    private DownloadTask lastHistoryTask;
+    private boolean hasMoreHistory = true;
     
     public OptimizedTransferListController() {
         this.tasks = FXCollections.observableArrayList();
-        this.downloadService = new FileDownloadService();
         this.taskDAO = new DownloadTaskDAO();
         this.fileListService = new FileListService();
+        this.downloadService = new FileDownloadService(fileListService);
         this.executorService = Executors.newSingleThreadExecutor();
     }
     
     @FXML
     public void initialize() {
-        // 从数据库加载任务（只加载最近的100条）
+        // 从数据库加载第一页任务，其余在滚动时按游标加载
         loadTasksFromDatabase();
         
         fileNameColumn.setCellValueFactory(cellData -> cellData.getValue().fileNameProperty());
@@ -117,31 +121,42 @@ public class OptimizedTransferListController {
     }
     
     private void loadTasksFromDatabase() {
-        // 只加载最近的任务，避免一次性加载过多
-        executorService.submit(() -> {
-            List<DownloadTask> savedTasks = taskDAO.getAllTasks();
-            Platform.runLater(() -> {
-                // 只显示未完成的任务和最近100个已完成的任务
-                int count = 0;
-                for (DownloadTask task : savedTasks) {
-                    if (count++ >= 100) break;
-                    tasks.add(task);
-                    // 如果任务未完成，重新开始下载
-                    if (task.getStatus().equals(DownloadTask.Status.DOWNLOADING.getText()) ||
-                        task.getStatus().equals(DownloadTask.Status.PAUSED.getText())) {
-                        task.setStatus(DownloadTask.Status.PAUSED);
-                    }
+        isLoading = true;
+        showLoading(true);
+        executorService.submit(this::loadHistoryPage);
+    }
+    
+    /**
+     * 从数据库按游标加载下一页历史任务（在后台线程执行）
+     */
+    private void loadHistoryPage() {
+        List<DownloadTask> page = taskDAO.getTasksAfter(lastHistoryTask, pageSize);
+        Platform.runLater(() -> {
+            for (DownloadTask task : page) {
+                tasks.add(task);
+                // 上次退出时未完成的任务恢复为暂停状态，由用户决定是否继续
+                if (task.getStatus().equals(DownloadTask.Status.DOWNLOADING.getText()) ||
+                    task.getStatus().equals(DownloadTask.Status.PAUSED.getText())) {
+                    task.setStatus(DownloadTask.Status.PAUSED);
                 }
-                updateStatusLabel();
-            });
+            }
+            if (!page.isEmpty()) {
+                lastHistoryTask = page.get(page.size() - 1);
+            }
+            if (page.size() < pageSize) {
+                hasMoreHistory = false;
+            }
+            isLoading = false;
+            showLoading(false);
+            updateStatusLabel();
         });
     }
     
     /**
-     * 从服务器加载下一页文件列表
+     * 滚动到底部时加载下一页：先按游标翻完本地历史任务，再从服务器加载文件列表
      */
     private void loadMoreIfNeeded() {
-        if (isLoading || !hasMoreData) {
+        if (isLoading || (!hasMoreHistory && !hasMoreData)) {
             return;
         }
         
@@ -158,6 +173,11 @@ public class OptimizedTransferListController {
         isLoading = true;
         showLoading(true);
         
+        if (hasMoreHistory) {
+            executorService.submit(this::loadHistoryPage);
+            return;
+        }
+        
         executorService.submit(() -> {
             try {
                 currentPage++;
@@ -209,6 +229,7 @@ public class OptimizedTransferListController {
                         fileInfo.getFileSize(),
                         savePath
                 );
+                task.setChecksum(fileInfo.getChecksum());
                 tasks.add(task);
                 taskDAO.saveTask(task); // 保存到数据库
                 // 不自动开始下载，由用户决定
@@ -220,20 +241,14 @@ public class OptimizedTransferListController {
         downloadService.downloadFile(task, new FileDownloadService.DownloadProgressListener() {
             @Override
             public void onProgress(DownloadTask task) {
-                Platform.runLater(() -> {
-                    taskTableView.refresh();
-                    // 减少数据库写入频率，每5秒更新一次
-                    if (System.currentTimeMillis() % 5000 < 100) {
-                        taskDAO.updateTaskProgress(task.getFilePath(), task.getDownloadedSize(), task.getStatus());
-                    }
-                });
+                // 界面由 ProgressPulse 每帧刷新；进度只登记最新值，由后台线程合并后批量写入数据库
+                TaskProgressWriter.getInstance().submit(task.getTaskId(), task.getDownloadedSize(), task.getStatus());
             }
             
             @Override
             public void onCompleted(DownloadTask task) {
                 Platform.runLater(() -> {
-                    taskTableView.refresh();
-                    taskDAO.updateTaskProgress(task.getFilePath(), task.getDownloadedSize(), task.getStatus());
+                    TaskProgressWriter.getInstance().submit(task.getTaskId(), task.getDownloadedSize(), task.getStatus());
                     updateStatusLabel();
                 });
             }
@@ -241,8 +256,7 @@ public class OptimizedTransferListController {
             @Override
             public void onError(DownloadTask task, Exception e) {
                 Platform.runLater(() -> {
-                    taskTableView.refresh();
-                    taskDAO.updateTaskProgress(task.getFilePath(), task.getDownloadedSize(), task.getStatus());
+                    TaskProgressWriter.getInstance().submit(task.getTaskId(), task.getDownloadedSize(), task.getStatus());
                     showError("下载失败", task.getFileName() + " 下载失败: " + e.getMessage());
                 });
             }
@@ -260,7 +274,9 @@ public class OptimizedTransferListController {
         DownloadTask task = taskTableView.getSelectionModel().getSelectedItem();
         if (task != null && task.getStatus().equals(DownloadTask.Status.PAUSED.getText())) {
             task.setPaused(false);
-            startDownload(task);
+            if (!downloadService.isRunning(task)) {
+                startDownload(task);
+            }
         }
     }
     
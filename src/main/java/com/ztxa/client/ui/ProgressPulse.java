@@ -0,0 +1,17 @@
+package com.ztxa.client.ui;
+
+import com.ztxa.client.model.DownloadTask;
+import javafx.animation.AnimationTimer;
+
+/**
+ * 下载进度刷新脉冲
+ * 每帧在 FX 线程上把下载线程登记的进度、状态、速度一次性发布到任务属性，
+ * 绑定这些属性的表格单元格自行更新，不再为每次进度回调排队 runLater 或刷新整个表格。
+ */
+public class ProgressPulse extends AnimationTimer {
+
+    @Override
+    public void handle(long now) {
+        DownloadTask.publishPendingUpdates();
+    }
+}
@@ -1,9 +1,11 @@
 package com.ztxa.client.ui;
 
 import com.ztxa.client.config.AppConfig;
+import com.ztxa.client.service.BandwidthLimiter;
 import com.ztxa.client.service.ProtocolRegistrationService;
 import javafx.fxml.FXML;
 import javafx.scene.control.Alert;
+import javafx.scene.control.CheckBox;
 import javafx.scene.control.ComboBox;
 import javafx.scene.control.TextField;
 import javafx.stage.DirectoryChooser;
@@ -25,8 +27,20 @@ public class SettingsController {
     @FXML
     private TextField maxConcurrentField;
     @FXML
+    private TextField segmentCountField;
+    @FXML
     private ComboBox<String> fileExistsBehaviorField;
     @FXML
+    private TextField speedLimitField;
+    @FXML
+    private TextField taskSpeedLimitField;
+    @FXML
+    private TextField speedLimitScheduleField;
+    @FXML
+    private CheckBox preallocateFilesField;
+    @FXML
+    private ComboBox<String> durabilityPolicyField;
+    @FXML
     private TextField appKeyField;
     
     private Stage stage;
@@ -40,6 +54,7 @@ public class SettingsController {
         downloadPathField.setText(config.getDownloadPath());
         pollIntervalField.setText(String.valueOf(config.getPollInterval()));
         maxConcurrentField.setText(String.valueOf(config.getMaxConcurrentDownloads()));
+        segmentCountField.setText(String.valueOf(config.getSegmentCount()));
         
         fileExistsBehaviorField.getItems().addAll("跳过 (断点续传)", "重新下载 (覆盖)");
         if ("OVERWRITE".equals(config.getFileExistsBehavior())) {
@@ -48,6 +63,19 @@ public class SettingsController {
             fileExistsBehaviorField.getSelectionModel().select("跳过 (断点续传)");
         }
         
+        speedLimitField.setText(String.valueOf(config.getSpeedLimitKB()));
+        taskSpeedLimitField.setText(String.valueOf(config.getTaskSpeedLimitKB()));
+        speedLimitScheduleField.setText(config.getSpeedLimitSchedule());
+        preallocateFilesField.setSelected(config.isPreallocateFiles());
+        
+        durabilityPolicyField.getItems().addAll("不刷盘 (最快)", "完成时刷盘 (推荐)", "保存进度时也刷盘 (最安全)");
+        if ("NONE".equals(config.getDurabilityPolicy())) {
+            durabilityPolicyField.getSelectionModel().select(0);
+        } else if ("CHECKPOINT".equals(config.getDurabilityPolicy())) {
+            durabilityPolicyField.getSelectionModel().select(2);
+        } else {
+            durabilityPolicyField.getSelectionModel().select(1);
+        }
         appKeyField.setText(config.getAppKey());
     }
     
@@ -76,8 +104,17 @@ public class SettingsController {
             String downloadPath = downloadPathField.getText().trim();
             int pollInterval = Integer.parseInt(pollIntervalField.getText().trim());
             int maxConcurrent = Integer.parseInt(maxConcurrentField.getText().trim());
+            int segmentCount = Integer.parseInt(segmentCountField.getText().trim());
             String behavior = fileExistsBehaviorField.getSelectionModel().getSelectedItem();
             String fileExistsBehavior = behavior.contains("重新下载") ? "OVERWRITE" : "SKIP";
+            int speedLimit = Integer.parseInt(speedLimitField.getText().trim());
+            int taskSpeedLimit = Integer.parseInt(taskSpeedLimitField.getText().trim());
+            String speedLimitSchedule = speedLimitScheduleField.getText().trim();
+            String durabilityPolicy = switch (durabilityPolicyField.getSelectionModel().getSelectedIndex()) {
+                case 0 -> "NONE";
+                case 2 -> "CHECKPOINT";
+                default -> "COMMIT";
+            };
             String appKey = appKeyField.getText().trim();
             
             if (serverHost.isEmpty()) {
@@ -110,6 +147,21 @@ public class SettingsController {
                 return;
             }
             
+            if (segmentCount < 1 || segmentCount > 16) {
+                showError("分段连接数必须在1到16之间");
+                return;
+            }
+            
+            if (speedLimit < 0 || taskSpeedLimit < 0) {
+                showError("限速不能小于0（0 表示不限速）");
+                return;
+            }
+            
+            if (!BandwidthLimiter.isValidSchedule(speedLimitSchedule)) {
+                showError("限速时间段格式应为 HH:mm-HH:mm=KB（时间在 00:00 到 23:59 之间），多个时间段用分号分隔");
+                return;
+            }
+            
             if (appKey.isEmpty()) {
                 showError("AppKey不能为空");
                 return;
@@ -122,7 +174,13 @@ public class SettingsController {
             config.setDownloadPath(downloadPath);
             config.setPollInterval(pollInterval);
             config.setMaxConcurrentDownloads(maxConcurrent);
+            config.setSegmentCount(segmentCount);
             config.setFileExistsBehavior(fileExistsBehavior);
+            config.setSpeedLimitKB(speedLimit);
+            config.setTaskSpeedLimitKB(taskSpeedLimit);
+            config.setSpeedLimitSchedule(speedLimitSchedule);
+            config.setPreallocateFiles(preallocateFilesField.isSelected());
+            config.setDurabilityPolicy(durabilityPolicy);
             config.setAppKey(appKey);
             
             showInfo("设置保存成功");
@@ -130,7 +188,7 @@ public class SettingsController {
                 stage.close();
             }
         } catch (NumberFormatException e) {
-            showError("端口、间隔和并发数必须是有效的数字");
+            showError("端口、间隔、并发数和限速必须是有效的数字");
         }
     }
     
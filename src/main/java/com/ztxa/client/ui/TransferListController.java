@@ -2,12 +2,16 @@ package com.ztxa.client.ui;
 
 import com.ztxa.client.config.AppConfig;
 import com.ztxa.client.database.DownloadTaskDAO;
+import com.ztxa.client.database.TaskProgressWriter;
 import com.ztxa.client.model.DownloadTask;
 import com.ztxa.client.model.FileInfo;
+import com.ztxa.client.service.DownloadScheduler;
 import com.ztxa.client.service.FileDownloadService;
+import com.ztxa.client.service.FileListService;
 import javafx.application.Platform;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
@@ -17,10 +21,16 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 public class TransferListController {
     private static final Logger logger = LoggerFactory.getLogger(TransferListController.class);
+    // 一次移入历史的任务达到该数量时整体过滤 activeTasks，否则逐个移除
+    private static final int BULK_REMOVE_THRESHOLD = 64;
     @FXML
     private TableView<DownloadTask> activeTaskTableView;
     @FXML
@@ -48,13 +58,39 @@ public class TransferListController {
     private ObservableList<DownloadTask> activeTasks;
     private ObservableList<DownloadTask> historyTasks;
     private FileDownloadService downloadService;
+    private DownloadScheduler scheduler;
     private DownloadTaskDAO taskDAO;
+    private TaskProgressWriter progressWriter;
+    // activeTasks 中所有任务的保存路径，添加任务时 O(1) 去重
+    private final Set<String> activeSavePaths = new HashSet<>();
+    // historyTasks 中的任务，移入历史时 O(1) 去重
+    private final Set<DownloadTask> historyTaskSet = new HashSet<>();
+    // 等待移入历史的任务（只在 FX 线程访问），同一轮事件中结束的任务一次性移动
+    private final Set<DownloadTask> finishedTasks = new LinkedHashSet<>();
     
-    public TransferListController() {
+    /**
+     * 由 FXMLLoader 的 controllerFactory 创建，与应用共用同一个 FileListService
+     */
+    public TransferListController(FileListService fileListService) {
         this.activeTasks = FXCollections.observableArrayList();
         this.historyTasks = FXCollections.observableArrayList();
-        this.downloadService = new FileDownloadService();
+        this.downloadService = new FileDownloadService(fileListService);
+        this.scheduler = new DownloadScheduler(downloadService, createDownloadListener());
         this.taskDAO = new DownloadTaskDAO();
+        this.progressWriter = TaskProgressWriter.getInstance();
+        
+        this.activeTasks.addListener((ListChangeListener<DownloadTask>) change -> {
+            while (change.next()) {
+                change.getRemoved().forEach(task -> activeSavePaths.remove(task.getSavePath()));
+                change.getAddedSubList().forEach(task -> activeSavePaths.add(task.getSavePath()));
+            }
+        });
+        this.historyTasks.addListener((ListChangeListener<DownloadTask>) change -> {
+            while (change.next()) {
+                change.getRemoved().forEach(historyTaskSet::remove);
+                historyTaskSet.addAll(change.getAddedSubList());
+            }
+        });
     }
     
     @FXML
@@ -75,7 +111,9 @@ public class TransferListController {
         setupContextMenus();
 
         // 2. 启动等待中的下载 (支持重启自动恢复)
-        startPendingDownloads();
+        scheduler.enqueueAll(activeTasks.stream()
+            .filter(task -> task.getStatus().equals(DownloadTask.Status.WAITING.getText()))
+            .toList());
     }
 
     private void setupTableColumns(TableColumn<DownloadTask, String> nameCol, 
@@ -107,13 +145,17 @@ public class TransferListController {
             if (isActive) {
                 MenuItem pauseItem = new MenuItem("暂停");
                 MenuItem resumeItem = new MenuItem("继续");
+                MenuItem boostItem = new MenuItem("优先下载");
+                MenuItem limitItem = new MenuItem("限速...");
                 MenuItem cancelItem = new MenuItem("取消");
                 
                 pauseItem.setOnAction(e -> pauseSelectedTask(tableView));
                 resumeItem.setOnAction(e -> resumeSelectedTask(tableView));
+                boostItem.setOnAction(e -> boostSelectedTask(tableView));
+                limitItem.setOnAction(e -> limitSelectedTask(tableView));
                 cancelItem.setOnAction(e -> cancelSelectedTask(tableView));
                 
-                rowMenu.getItems().addAll(pauseItem, resumeItem, cancelItem, new SeparatorMenuItem());
+                rowMenu.getItems().addAll(pauseItem, resumeItem, boostItem, limitItem, cancelItem, new SeparatorMenuItem());
             }
             
             MenuItem removeItem = new MenuItem("删除记录");
@@ -161,8 +203,9 @@ public class TransferListController {
 
     private void pauseAllTasks() {
         for (DownloadTask task : activeTasks) {
-            if (task.getStatus().equals(DownloadTask.Status.DOWNLOADING.getText())) {
-                task.setPaused(true);
+            if (task.getStatus().equals(DownloadTask.Status.DOWNLOADING.getText()) ||
+                task.getStatus().equals(DownloadTask.Status.WAITING.getText())) {
+                scheduler.pause(task);
             }
         }
     }
@@ -170,9 +213,8 @@ public class TransferListController {
     private void resumeAllTasks() {
         for (DownloadTask task : activeTasks) {
             if (task.getStatus().equals(DownloadTask.Status.PAUSED.getText())) {
-                task.setPaused(false);
-                // 重新启动下载线程
-                startDownload(task);
+                // 暂停中的下载线程会被直接唤醒，没有线程在执行时（如重启后恢复）重新排队
+                scheduler.resume(task);
             }
         }
     }
@@ -182,13 +224,8 @@ public class TransferListController {
         List<DownloadTask> tasksToCancel = new ArrayList<>(activeTasks);
         
         for (DownloadTask task : tasksToCancel) {
-            downloadService.cancelDownload(task);
+            scheduler.cancel(task);
         }
-        
-        Platform.runLater(() -> {
-            activeTaskTableView.refresh();
-            historyTaskTableView.refresh();
-        });
     }
 
     private void removeAllFinishedFromActive() {
@@ -201,16 +238,13 @@ public class TransferListController {
             })
             .toList();
             
-        for (DownloadTask task : toMove) {
-            activeTasks.remove(task);
-            if (!historyTasks.contains(task)) {
-                historyTasks.add(0, task);
-            }
-        }
+        finishedTasks.addAll(toMove);
+        flushFinishedTasks();
     }
 
     private void removeAllHistory() {
         for (DownloadTask task : historyTasks) {
+            progressWriter.discard(task.getTaskId());
             taskDAO.deleteTask(task.getTaskId());
         }
         historyTasks.clear();
@@ -221,6 +255,8 @@ public class TransferListController {
         List<DownloadTask> savedTasks = taskDAO.getAllTasks();
         logger.info("从数据库加载 {} 个任务", savedTasks.size());
         
+        // 数据库按创建时间倒序返回；正在下载的列表按添加顺序排列（新任务追加在末尾），加载后反转
+        List<DownloadTask> unfinished = new ArrayList<>();
         for (DownloadTask task : savedTasks) {
             String status = task.getStatus();
             
@@ -233,7 +269,7 @@ public class TransferListController {
                 if (status.equals(DownloadTask.Status.DOWNLOADING.getText())) {
                     task.setStatus(DownloadTask.Status.WAITING);
                 }
-                activeTasks.add(task);
+                unfinished.add(task);
             } else {
                 // 限制历史记录显示数量（可选，这里先全部加载，后续可优化为分页）
                 if (historyTasks.size() < 1000) {
@@ -241,12 +277,14 @@ public class TransferListController {
                 }
             }
         }
+        Collections.reverse(unfinished);
+        activeTasks.addAll(unfinished);
     }
     
     public void addDownloadTasks(List<FileInfo> fileList) {
         logger.info("添加下载任务: {} 个文件", fileList.size());
         AppConfig config = AppConfig.getInstance();
-        int addedCount = 0;
+        List<DownloadTask> added = new ArrayList<>();
         
         for (FileInfo fileInfo : fileList) {
             if (fileInfo.getFileName() == null || fileInfo.getFileName().trim().isEmpty()) continue;
@@ -285,11 +323,8 @@ public class TransferListController {
             }
             String savePath = saveFile.getAbsolutePath();
 
-            // 检查 activeTasks 中是否已有相同路径的任务
-            boolean isProcessing = activeTasks.stream()
-                    .anyMatch(task -> task.getSavePath() != null && task.getSavePath().equals(savePath));
-            
-            if (isProcessing) continue;
+            // 检查 activeTasks 中（以及本次已添加的任务中）是否已有相同路径的任务
+            if (!activeSavePaths.add(savePath)) continue;
             
             DownloadTask task = new DownloadTask(
                     fileInfo.getFileId(),
@@ -298,31 +333,28 @@ public class TransferListController {
                     fileInfo.getFileSize(),
                     savePath
             );
+            task.setChecksum(fileInfo.getChecksum());
             
-            activeTasks.add(0, task); // 新任务放在最前面
-            taskDAO.saveTask(task);
-            addedCount++;
+            added.add(task);
         }
         
-        startPendingDownloads();
+        // 新任务一次性追加到列表末尾（在头部插入每次都要移动整个列表），由后台写入线程批量插入数据库
+        activeTasks.addAll(added);
+        progressWriter.submitNew(added);
+        scheduler.enqueueAll(added);
     }
     
-    private void startDownload(DownloadTask task) {
-        downloadService.downloadFile(task, new FileDownloadService.DownloadProgressListener() {
+    private FileDownloadService.DownloadProgressListener createDownloadListener() {
+        return new FileDownloadService.DownloadProgressListener() {
             @Override
             public void onProgress(DownloadTask task) {
-                Platform.runLater(() -> {
-                    activeTaskTableView.refresh();
-                    taskDAO.updateTaskProgress(task.getTaskId(), task.getDownloadedSize(), task.getStatus());
-                });
+                // 界面由 ProgressPulse 每帧刷新；进度只登记最新值，由后台线程合并后批量写入数据库
+                progressWriter.submit(task.getTaskId(), task.getDownloadedSize(), task.getStatus());
             }
             
             @Override
             public void onCompleted(DownloadTask task) {
-                Platform.runLater(() -> {
-                    moveToHistory(task);
-                    startPendingDownloads();
-                });
+                Platform.runLater(() -> moveToHistory(task));
             }
             
             @Override
@@ -330,40 +362,42 @@ public class TransferListController {
                 Platform.runLater(() -> {
                     moveToHistory(task);
                     showError("下载失败", task.getFileName() + " 下载失败: " + e.getMessage());
-                    startPendingDownloads();
                 });
             }
-        });
+        };
     }
 
     private void moveToHistory(DownloadTask task) {
-        activeTasks.remove(task);
-        if (!historyTasks.contains(task)) {
-            historyTasks.add(0, task);
+        if (finishedTasks.isEmpty()) {
+            Platform.runLater(this::flushFinishedTasks);
         }
-        taskDAO.updateTaskProgress(task.getTaskId(), task.getDownloadedSize(), task.getStatus());
-        activeTaskTableView.refresh();
-        historyTaskTableView.refresh();
+        finishedTasks.add(task);
+        progressWriter.submit(task.getTaskId(), task.getDownloadedSize(), task.getStatus());
     }
     
-    private void startPendingDownloads() {
-        AppConfig config = AppConfig.getInstance();
-        int maxConcurrent = config.getMaxConcurrentDownloads();
-        
-        long downloadingCount = activeTasks.stream()
-                .filter(task -> task.getStatus().equals(DownloadTask.Status.DOWNLOADING.getText()))
-                .count();
-        
-        if (downloadingCount >= maxConcurrent) return;
-        
-        List<DownloadTask> waitingTasks = activeTasks.stream()
-                .filter(task -> task.getStatus().equals(DownloadTask.Status.WAITING.getText()))
-                .limit(maxConcurrent - downloadingCount)
-                .toList();
-        
-        for (DownloadTask task : waitingTasks) {
-            startDownload(task);
+    /**
+     * 把等待移入历史的任务从 activeTasks 中移除，再按结束顺序倒序插到历史列表头部。
+     * 任务少时逐个移除（按添加顺序下载，结束的任务靠近列表头部，查找很快）；
+     * 同时结束的任务很多时按集合整体过滤一遍列表，不再每个任务各扫描、移动一次
+     */
+    private void flushFinishedTasks() {
+        if (finishedTasks.isEmpty()) {
+            return;
         }
+        if (finishedTasks.size() < BULK_REMOVE_THRESHOLD) {
+            finishedTasks.forEach(activeTasks::remove);
+        } else {
+            activeTasks.removeAll(finishedTasks);
+        }
+        List<DownloadTask> moved = new ArrayList<>(finishedTasks.size());
+        for (DownloadTask task : finishedTasks) {
+            if (!historyTaskSet.contains(task)) {
+                moved.add(task);
+            }
+        }
+        finishedTasks.clear();
+        Collections.reverse(moved);
+        historyTasks.addAll(0, moved);
     }
     
     private void pauseSelectedTask(TableView<DownloadTask> tableView) {
@@ -372,7 +406,7 @@ public class TransferListController {
             String status = task.getStatus();
             if (status.equals(DownloadTask.Status.DOWNLOADING.getText()) ||
                 status.equals(DownloadTask.Status.WAITING.getText())) {
-                task.setPaused(true);
+                scheduler.pause(task);
             }
         }
     }
@@ -380,15 +414,51 @@ public class TransferListController {
     private void resumeSelectedTask(TableView<DownloadTask> tableView) {
         DownloadTask task = tableView.getSelectionModel().getSelectedItem();
         if (task != null && task.getStatus().equals(DownloadTask.Status.PAUSED.getText())) {
-            task.setPaused(false);
-            startDownload(task);
+            scheduler.resume(task);
+        }
+    }
+    
+    private void boostSelectedTask(TableView<DownloadTask> tableView) {
+        DownloadTask task = tableView.getSelectionModel().getSelectedItem();
+        if (task != null) {
+            scheduler.boost(task);
         }
     }
     
+    /**
+     * 设置任务自己的限速（KB/s），0 表示使用设置中的单任务默认上限；下载中的任务立即生效，并随任务记录保存
+     */
+    private void limitSelectedTask(TableView<DownloadTask> tableView) {
+        DownloadTask task = tableView.getSelectionModel().getSelectedItem();
+        if (task == null) {
+            return;
+        }
+        TextInputDialog dialog = new TextInputDialog(String.valueOf(task.getSpeedLimitKB()));
+        dialog.setTitle("任务限速");
+        dialog.setHeaderText(task.getFileName());
+        dialog.setContentText("限速 (KB/s，0 表示使用默认值):");
+        dialog.showAndWait().ifPresent(text -> {
+            int speedLimitKB;
+            try {
+                speedLimitKB = Integer.parseInt(text.trim());
+            } catch (NumberFormatException e) {
+                showError("输入错误", "限速必须是整数");
+                return;
+            }
+            if (speedLimitKB < 0) {
+                showError("输入错误", "限速不能为负数");
+                return;
+            }
+            task.setSpeedLimitKB(speedLimitKB);
+            taskDAO.updateTaskSpeedLimit(task.getTaskId(), speedLimitKB);
+            logger.info("任务限速: fileName={}, {}", task.getFileName(), speedLimitKB > 0 ? speedLimitKB + " KB/s" : "使用默认值");
+        });
+    }
+    
     private void cancelSelectedTask(TableView<DownloadTask> tableView) {
         DownloadTask task = tableView.getSelectionModel().getSelectedItem();
         if (task != null) {
-            downloadService.cancelDownload(task);
+            scheduler.cancel(task);
             Platform.runLater(() -> moveToHistory(task));
         }
     }
@@ -403,6 +473,7 @@ public class TransferListController {
                 
                 activeTasks.remove(task);
                 historyTasks.remove(task);
+                progressWriter.discard(task.getTaskId());
                 taskDAO.deleteTask(task.getTaskId());
             } else {
                 showError("无法删除", "请先取消正在运行的任务");
@@ -0,0 +1,419 @@
+package com.ztxa.server;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.ztxa.server.model.ChunkManifest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 共享目录的内容哈希索引
+ * 记录每个文件的大小、修改时间、整个文件的 SHA-256 以及分块清单，持久化到索引文件，重启后只重新计算有变化的文件。
+ * 启动时扫描一次目录，之后由 WatchService 的文件事件驱动更新；哈希在后台线程池中并行计算，
+ * 一次读取同时得到整个文件的摘要和各分块的摘要。
+ *
+ * <p>文件列表和分块清单请求直接读取内存中的索引，不再访问磁盘。文件在哈希算完后才加入索引，
+ * 列表中的文件都带有校验和，客户端不会下载到无法校验的文件；内容变化的文件在重新算完之前从索引中移除。</p>
+ */
+public class ContentHashIndex {
+    private static final String ALGORITHM = "SHA-256";
+    private static final int CHUNK_SIZE = 4 * 1024 * 1024;
+    private static final long SETTLE_DELAY_MS = 200; // 文件停止变化一段时间后再计算，避免复制大文件过程中反复哈希
+    private static final long SAVE_DELAY_MS = 5000;
+    private static final Gson gson = new Gson();
+    // 每个线程复用一个读缓冲区，共享目录中大量小文件时不必为每个文件分配 4MB 直接内存
+    private static final ThreadLocal<ByteBuffer> READ_BUFFER =
+        ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(CHUNK_SIZE));
+
+    private final Path shareDir;
+    private final Path indexFile;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // 已排队或正在计算的文件，同一文件同时只计算一次
+    private final Set<String> hashing = ConcurrentHashMap.newKeySet();
+    private final Map<String, ScheduledFuture<?>> pendingRefresh = new ConcurrentHashMap<>();
+    // 列表可见的内容（文件增删、大小或校验和）变化时加一，列表接口据此判断缓存的响应是否过期，长轮询也在它上面等待
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicBoolean saveScheduled = new AtomicBoolean(false);
+    private final ExecutorService hashers;
+    private final ScheduledExecutorService scheduler;
+
+    public ContentHashIndex(String shareDir, String indexFile, int hashThreads) {
+        this.shareDir = Paths.get(shareDir).toAbsolutePath().normalize();
+        this.indexFile = Paths.get(indexFile).toAbsolutePath().normalize();
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.hashers = Executors.newFixedThreadPool(Math.max(1, hashThreads), r -> {
+            Thread thread = new Thread(r, "content-hasher-" + threadIndex.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "content-index-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 加载持久化的索引、扫描目录并开始监听文件变化
+     */
+    public void start() throws IOException {
+        load();
+        scan();
+        WatchService watchService = shareDir.getFileSystem().newWatchService();
+        shareDir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        Thread watcher = new Thread(() -> watch(watchService), "share-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::save, "content-index-save"));
+    }
+
+    /**
+     * 索引的版本号，文件增删、大小或校验和变化时递增
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * 阻塞等待索引版本号离开 known，最多等待 timeoutMs 毫秒（长轮询使用）
+     * @return 返回时的版本号，超时未变化时等于 known
+     */
+    public long awaitChange(long known, long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        synchronized (generation) {
+            while (generation.get() == known) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    break;
+                }
+                generation.wait(remaining);
+            }
+            return generation.get();
+        }
+    }
+
+    private void bumpGeneration() {
+        synchronized (generation) {
+            generation.incrementAndGet();
+            generation.notifyAll();
+        }
+    }
+
+    /**
+     * 当前索引中的所有文件（按文件名排序）
+     */
+    public List<Entry> getEntries() {
+        List<Entry> snapshot = new ArrayList<>(entries.values());
+        snapshot.sort(Comparator.comparing(entry -> entry.name));
+        return snapshot;
+    }
+
+    /**
+     * 按文件名查询索引条目，不存在时返回 null
+     */
+    public Entry getEntry(String name) {
+        return entries.get(name);
+    }
+
+    /**
+     * 获取文件的分块清单：索引中已有且文件未变化时直接返回，否则当场计算（不在共享目录顶层的文件不缓存）
+     */
+    public ChunkManifest getManifest(String relativePath, File file) throws IOException {
+        Entry entry = entries.get(relativePath);
+        if (entry != null && entry.manifest != null
+                && entry.size == file.length() && entry.lastModified == file.lastModified()) {
+            return entry.manifest;
+        }
+        Entry computed = hash(relativePath, file);
+        if (entries.containsKey(relativePath)) {
+            putEntry(computed);
+        }
+        return computed.manifest;
+    }
+
+    private void load() {
+        if (!Files.isRegularFile(indexFile)) {
+            return;
+        }
+        try (Reader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+            List<Entry> saved = gson.fromJson(reader, new TypeToken<List<Entry>>(){}.getType());
+            if (saved != null) {
+                for (Entry entry : saved) {
+                    entries.put(entry.name, entry);
+                }
+            }
+            System.out.println("已加载内容索引: " + entries.size() + " 个文件");
+        } catch (Exception e) {
+            System.err.println("加载内容索引失败，将重新计算: " + e.getMessage());
+            entries.clear();
+        }
+    }
+
+    private void save() {
+        saveScheduled.set(false);
+        List<Entry> hashed = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (entry.checksum != null) {
+                hashed.add(entry);
+            }
+        }
+        Path tempFile = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+                gson.toJson(hashed, writer);
+            }
+            Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("保存内容索引失败: " + e.getMessage());
+        }
+    }
+
+    private void scheduleSave() {
+        if (saveScheduled.compareAndSet(false, true)) {
+            scheduler.schedule(this::save, SAVE_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 全量扫描：启动时以及监听事件溢出时执行
+     */
+    private void scan() {
+        File[] files = shareDir.toFile().listFiles();
+        Set<String> present = new HashSet<>();
+        int queued = 0;
+        if (files != null) {
+            for (File file : files) {
+                if (file.isFile()) {
+                    present.add(file.getName());
+                    if (refresh(file.getName())) {
+                        queued++;
+                    }
+                }
+            }
+        }
+        if (entries.keySet().retainAll(present)) {
+            bumpGeneration();
+            scheduleSave();
+        }
+        System.out.println("共享目录扫描完成: " + present.size() + " 个文件，待计算哈希 " + queued + " 个");
+    }
+
+    /**
+     * 根据文件当前状态更新索引
+     * @return 是否需要（重新）计算哈希
+     */
+    private boolean refresh(String name) {
+        File file = shareDir.resolve(name).toFile();
+        if (!file.isFile()) {
+            if (entries.remove(name) != null) {
+                bumpGeneration();
+                scheduleSave();
+            }
+            return false;
+        }
+        long size = file.length();
+        long lastModified = file.lastModified();
+        Entry entry = entries.get(name);
+        if (entry != null && entry.checksum != null && entry.size == size && entry.lastModified == lastModified) {
+            return false;
+        }
+        // 新文件算完哈希后才加入列表；内容变化的文件原有的校验和已经不对，先从列表中移除
+        if (entries.remove(name) != null) {
+            bumpGeneration();
+            scheduleSave();
+        }
+        queueHash(name);
+        return true;
+    }
+
+    private void putEntry(Entry entry) {
+        Entry previous = entries.put(entry.name, entry);
+        // 只有列表中可见的字段变化时才更新版本号，避免无谓地唤醒所有长轮询
+        if (previous == null || previous.size != entry.size || !Objects.equals(previous.checksum, entry.checksum)) {
+            bumpGeneration();
+        }
+        scheduleSave();
+    }
+
+    private void queueHash(String name) {
+        if (!hashing.add(name)) {
+            return;
+        }
+        hashers.execute(() -> {
+            File file = shareDir.resolve(name).toFile();
+            Entry hashed = null;
+            try {
+                if (file.isFile()) {
+                    hashed = hash(name, file);
+                }
+            } catch (IOException e) {
+                System.err.println("计算文件哈希失败: " + name + ", " + e.getMessage());
+            } finally {
+                hashing.remove(name);
+            }
+            // 计算期间文件又发生变化时丢弃结果并重新排队
+            if (hashed != null && hashed.size == file.length() && hashed.lastModified == file.lastModified()) {
+                putEntry(hashed);
+            } else if (file.isFile()) {
+                refresh(name);
+            }
+        });
+    }
+
+    /**
+     * 读取一遍文件，同时计算整个文件的摘要和每个分块的摘要
+     */
+    private static Entry hash(String name, File file) throws IOException {
+        long lastModified = file.lastModified();
+        MessageDigest fileDigest = newDigest();
+        MessageDigest chunkDigest = newDigest();
+        List<byte[]> leaves = new ArrayList<>();
+        long fileSize;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            fileSize = channel.size();
+            ByteBuffer buffer = READ_BUFFER.get();
+            long position = 0;
+            while (position < fileSize) {
+                buffer.clear();
+                buffer.limit((int) Math.min(CHUNK_SIZE, fileSize - position));
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, position + buffer.position()) < 0) {
+                        throw new IOException("文件在计算哈希时被截断: " + file);
+                    }
+                }
+                buffer.flip();
+                fileDigest.update(buffer.duplicate());
+                chunkDigest.update(buffer);
+                leaves.add(chunkDigest.digest());
+                position += buffer.limit();
+            }
+        }
+
+        HexFormat hex = HexFormat.of();
+        List<String> chunkHashes = new ArrayList<>(leaves.size());
+        for (byte[] leaf : leaves) {
+            chunkHashes.add(hex.formatHex(leaf));
+        }
+        ChunkManifest manifest = new ChunkManifest(fileSize, CHUNK_SIZE, ALGORITHM,
+            hex.formatHex(merkleRoot(leaves, chunkDigest)), chunkHashes);
+        return new Entry(name, fileSize, lastModified, "sha256:" + hex.formatHex(fileDigest.digest()), manifest);
+    }
+
+    /**
+     * 逐层两两合并计算 Merkle 根，落单的节点直接进入上一层；空文件的根为空数据的哈希
+     */
+    private static byte[] merkleRoot(List<byte[]> leaves, MessageDigest digest) {
+        if (leaves.isEmpty()) {
+            return digest.digest();
+        }
+        List<byte[]> level = leaves;
+        while (level.size() > 1) {
+            List<byte[]> next = new ArrayList<>((level.size() + 1) / 2);
+            for (int i = 0; i < level.size(); i += 2) {
+                if (i + 1 < level.size()) {
+                    digest.update(level.get(i));
+                    digest.update(level.get(i + 1));
+                    next.add(digest.digest());
+                } else {
+                    next.add(level.get(i));
+                }
+            }
+            level = next;
+        }
+        return level.get(0);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void watch(WatchService watchService) {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    // 事件丢失，重新扫描整个目录
+                    scheduler.execute(this::scan);
+                    continue;
+                }
+                String name = event.context().toString();
+                // 同一文件的连续事件合并，文件稳定后再处理
+                pendingRefresh.compute(name, (k, pending) -> {
+                    if (pending != null) {
+                        pending.cancel(false);
+                    }
+                    return scheduler.schedule(() -> {
+                        pendingRefresh.remove(name);
+                        refresh(name);
+                    }, SETTLE_DELAY_MS, TimeUnit.MILLISECONDS);
+                });
+            }
+            if (!key.reset()) {
+                System.err.println("共享目录监听已失效: " + shareDir);
+                return;
+            }
+        }
+    }
+
+    /**
+     * 索引条目：checksum 为 "sha256:十六进制摘要"
+     */
+    public static class Entry {
+        String name;
+        long size;
+        long lastModified;
+        String checksum;
+        ChunkManifest manifest;
+
+        Entry() {
+        }
+
+        Entry(String name, long size, long lastModified, String checksum, ChunkManifest manifest) {
+            this.name = name;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.checksum = checksum;
+            this.manifest = manifest;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public String getChecksum() {
+            return checksum;
+        }
+    }
+}
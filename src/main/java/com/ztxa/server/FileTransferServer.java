@@ -1,6 +1,10 @@
 package com.ztxa.server;
 
 import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.ztxa.server.model.ChunkManifest;
 import com.ztxa.server.model.FileInfo;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
@@ -8,12 +12,13 @@ import com.sun.net.httpserver.HttpServer;
 
 import java.io.*;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 
 /**
@@ -24,11 +29,28 @@ public class FileTransferServer {
     private static final int HTTP_PORT = 8080;
     private static final int TCP_PORT = 9090;
     private static final String SHARE_DIR = "./share"; // 共享文件目录
+    // TCP selector 线程数与最大并发传输数，可通过 -Dtcp.selectorThreads / -Dtcp.maxConcurrentTransfers 调整
+    private static final int TCP_SELECTOR_THREADS = Integer.getInteger("tcp.selectorThreads",
+        Math.max(2, Runtime.getRuntime().availableProcessors()));
+    private static final int MAX_CONCURRENT_TRANSFERS = Integer.getInteger("tcp.maxConcurrentTransfers", 100);
+    // TCP 发送限速（字节/秒，0 表示不限速），可通过 -Dtcp.maxBytesPerSecond / -Dtcp.maxBytesPerSecondPerConnection 调整
+    private static final long MAX_BYTES_PER_SECOND = Long.getLong("tcp.maxBytesPerSecond", 0);
+    private static final long MAX_BYTES_PER_SECOND_PER_CONNECTION = Long.getLong("tcp.maxBytesPerSecondPerConnection", 0);
+    // 内容索引文件与哈希线程数，可通过 -Dindex.file / -Dindex.hashThreads 调整
+    private static final String INDEX_FILE = System.getProperty("index.file", "./share-index.json");
+    private static final int INDEX_HASH_THREADS = Integer.getInteger("index.hashThreads",
+        Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
     
-    // 模拟存储的appkey(实际应该存储在数据库中)
-    private static final Set<String> VALID_APP_KEYS = new HashSet<>();
+    // 模拟存储的appkey(实际应该存储在数据库中)，HTTP 线程写入、TCP selector 线程读取
+    private static final Set<String> VALID_APP_KEYS = ConcurrentHashMap.newKeySet();
     
     private static final Gson gson = new Gson();
+    // 进程启动标识，放进 ETag 里，重启后索引版本号从头计数也不会误判为未变化
+    private static final String INSTANCE_TAG = Long.toHexString(System.currentTimeMillis());
+    // 列表长轮询最长挂起时间（秒），客户端通过 wait 参数请求，超时后回 304
+    private static final int MAX_LONG_POLL_SECONDS = 60;
+    private static final int MAX_BATCH_PREPARE = 10000; // 单次批量准备最多的 fileId 数
+    private static final ContentHashIndex CONTENT_INDEX = new ContentHashIndex(SHARE_DIR, INDEX_FILE, INDEX_HASH_THREADS);
     
     public static void main(String[] args) throws IOException {
         // 创建共享目录
@@ -41,6 +63,14 @@ public class FileTransferServer {
         System.out.println("共享目录: " + shareDir.getAbsolutePath());
         System.out.println("HTTP端口: " + HTTP_PORT);
         System.out.println("TCP端口: " + TCP_PORT);
+        System.out.println("最大并发传输数: " + MAX_CONCURRENT_TRANSFERS);
+        if (MAX_BYTES_PER_SECOND > 0 || MAX_BYTES_PER_SECOND_PER_CONNECTION > 0) {
+            System.out.println("发送限速: 总计 " + MAX_BYTES_PER_SECOND + " B/s, 单连接 " + MAX_BYTES_PER_SECOND_PER_CONNECTION + " B/s (0 表示不限)");
+        }
+        System.out.println("内容索引: " + new File(INDEX_FILE).getAbsolutePath());
+        
+        // 加载内容索引并开始监听共享目录，哈希在后台计算，不阻塞服务启动
+        CONTENT_INDEX.start();
         
         // 启动HTTP服务
         startHttpServer();
@@ -51,28 +81,33 @@ public class FileTransferServer {
     
     private static void startHttpServer() throws IOException {
         HttpServer server = HttpServer.create(new InetSocketAddress(HTTP_PORT), 0);
-        server.createContext("/api/files", new FileListHandler());
-        server.setExecutor(Executors.newFixedThreadPool(10));
+        FileListHandler fileListHandler = new FileListHandler();
+        server.createContext("/api/files", fileListHandler);
+        // 客户端使用的后端列表地址，与 /api/files 共用同一份列表缓存
+        server.createContext("/downloadApi/files", fileListHandler);
+        // 分块清单和单个文件详情接口，路径与客户端使用的后端接口一致：
+        // /downloadApi/files/{fileId}/manifest、/downloadApi/files/{fileId}/prepare
+        server.createContext("/downloadApi/files/", new ManifestHandler());
+        // 批量下载准备：一次请求把多个 fileId 解析为文件详情
+        server.createContext("/downloadApi/prepare", new BatchPrepareHandler());
+        // 长轮询请求会挂起等待列表变化，使用虚拟线程，挂起的请求不占用平台线程
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
         server.start();
         System.out.println("HTTP服务已启动");
     }
     
-    private static void startTcpServer() {
-        new Thread(() -> {
-            try (ServerSocket serverSocket = new ServerSocket(TCP_PORT)) {
-                System.out.println("TCP服务已启动");
-                
-                while (true) {
-                    Socket clientSocket = serverSocket.accept();
-                    new Thread(() -> handleTcpClient(clientSocket)).start();
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }).start();
+    private static void startTcpServer() throws IOException {
+        // 固定数量的 selector 线程处理所有连接，不再为每个连接创建线程
+        TcpTransferServer tcpServer = new TcpTransferServer(
+            TCP_PORT, SHARE_DIR, VALID_APP_KEYS, CONTENT_INDEX, TCP_SELECTOR_THREADS, MAX_CONCURRENT_TRANSFERS,
+            MAX_BYTES_PER_SECOND, MAX_BYTES_PER_SECOND_PER_CONNECTION);
+        tcpServer.start();
+        System.out.println("TCP服务已启动");
     }
     
     static class FileListHandler implements HttpHandler {
+        private volatile ListingSnapshot snapshot;
+        
         @Override
         public void handle(HttpExchange exchange) throws IOException {
             if (!"GET".equals(exchange.getRequestMethod())) {
@@ -90,127 +125,233 @@ public class FileTransferServer {
             // 首次请求自动注册appkey(实际应该有注册流程)
             VALID_APP_KEYS.add(appKey);
             
-            // 获取共享目录中的文件列表
-            List<FileInfo> fileList = getFileList();
-            
-            if (fileList.isEmpty()) {
+            // 索引未变化时直接返回已序列化好的列表；客户端带着相同的 ETag 时只回 304
+            String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+            ListingSnapshot listing = currentListing();
+            int waitSeconds = Math.min(parseWait(exchange.getRequestURI().getRawQuery()), MAX_LONG_POLL_SECONDS);
+            if (waitSeconds > 0 && etagMatches(ifNoneMatch, listing.etag)) {
+                // 长轮询：客户端已是最新列表时挂起，直到索引变化或超时
+                try {
+                    CONTENT_INDEX.awaitChange(listing.generation, waitSeconds * 1000L);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                listing = currentListing();
+            }
+            exchange.getResponseHeaders().set("ETag", listing.etag);
+            exchange.getResponseHeaders().set("X-Long-Poll", String.valueOf(MAX_LONG_POLL_SECONDS));
+            if (etagMatches(ifNoneMatch, listing.etag)) {
+                exchange.sendResponseHeaders(304, -1);
+            } else if (listing.body == null) {
                 exchange.sendResponseHeaders(204, -1);
             } else {
-                String json = gson.toJson(fileList);
-                sendResponse(exchange, 200, json);
+                sendResponse(exchange, 200, listing.body);
             }
         }
         
-        private List<FileInfo> getFileList() {
-            List<FileInfo> fileList = new ArrayList<>();
-            File shareDir = new File(SHARE_DIR);
-            
-            File[] files = shareDir.listFiles();
-            if (files != null) {
-                for (File file : files) {
-                    if (file.isFile()) {
-                        FileInfo info = new FileInfo();
-                        info.setFileName(file.getName());
-                        info.setFilePath(file.getName()); // 相对路径
-                        info.setFileSize(file.length());
-                        info.setChecksum(String.valueOf(file.lastModified())); // 简单使用时间戳
-                        info.setTimestamp(System.currentTimeMillis());
-                        fileList.add(info);
+        /**
+         * 获取当前索引版本对应的列表响应，版本变化后第一个请求负责重新序列化，同一版本只序列化一次
+         */
+        private ListingSnapshot currentListing() {
+            ListingSnapshot listing = snapshot;
+            long generation = CONTENT_INDEX.getGeneration();
+            if (listing != null && listing.generation == generation) {
+                return listing;
+            }
+            synchronized (this) {
+                listing = snapshot;
+                generation = CONTENT_INDEX.getGeneration();
+                if (listing == null || listing.generation != generation) {
+                    // 先取版本号再读索引：序列化期间索引又变化时版本号对不上，下一个请求会重新生成
+                    List<FileInfo> fileList = getFileList();
+                    byte[] body = fileList.isEmpty() ? null : gson.toJson(fileList).getBytes(StandardCharsets.UTF_8);
+                    listing = new ListingSnapshot(generation, body);
+                    snapshot = listing;
+                }
+                return listing;
+            }
+        }
+        
+        private static int parseWait(String query) {
+            if (query == null) {
+                return 0;
+            }
+            for (String param : query.split("&")) {
+                if (param.startsWith("wait=")) {
+                    try {
+                        return Math.max(0, Integer.parseInt(param.substring(5)));
+                    } catch (NumberFormatException e) {
+                        return 0;
                     }
                 }
             }
+            return 0;
+        }
+        
+        private static boolean etagMatches(String ifNoneMatch, String etag) {
+            if (ifNoneMatch == null) {
+                return false;
+            }
+            for (String candidate : ifNoneMatch.split(",")) {
+                String value = candidate.trim();
+                if (value.equals("*") || value.equals(etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        private List<FileInfo> getFileList() {
+            // 直接读取内存中的内容索引，不再每次请求都遍历目录
+            List<FileInfo> fileList = new ArrayList<>();
+            long now = System.currentTimeMillis();
+            for (ContentHashIndex.Entry entry : CONTENT_INDEX.getEntries()) {
+                FileInfo info = new FileInfo();
+                info.setFileName(entry.getName());
+                info.setFilePath(entry.getName()); // 相对路径
+                info.setFileSize(entry.getSize());
+                info.setChecksum(entry.getChecksum()); // "sha256:..."，索引中的文件都已算完哈希
+                info.setTimestamp(now);
+                fileList.add(info);
+            }
             
             return fileList;
         }
         
-        private void sendResponse(HttpExchange exchange, int statusCode, String response) throws IOException {
-            byte[] bytes = response.getBytes("UTF-8");
-            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
-            exchange.sendResponseHeaders(statusCode, bytes.length);
-            try (OutputStream os = exchange.getResponseBody()) {
-                os.write(bytes);
-            }
+    }
+    
+    /**
+     * 某个索引版本的列表响应，body 为 null 表示列表为空
+     */
+    private static class ListingSnapshot {
+        final long generation;
+        final byte[] body;
+        final String etag;
+        
+        ListingSnapshot(long generation, byte[] body) {
+            this.generation = generation;
+            this.body = body;
+            this.etag = "\"" + INSTANCE_TAG + "-" + generation + "\"";
         }
     }
     
-    private static void handleTcpClient(Socket clientSocket) {
-        try (InputStream in = clientSocket.getInputStream();
-             BufferedInputStream bis = new BufferedInputStream(in, 65536);
-             DataInputStream dataIn = new DataInputStream(bis);
-             OutputStream out = clientSocket.getOutputStream();
-             DataOutputStream dataOut = new DataOutputStream(out)) {
-            
-            // 读取自定义协议头: 2字节命令(0x20 0x20) + 4字节长度 + 数据内容
-            byte[] header = new byte[2];
-            dataIn.readFully(header);
-            
-            if (header[0] != 0x20 || header[1] != 0x20) {
-                dataOut.writeUTF("ERROR: Invalid protocol header");
+    static class ManifestHandler implements HttpHandler {
+        private static final String PREFIX = "/downloadApi/files/";
+        private static final String SUFFIX = "/manifest";
+        private static final String PREPARE_SUFFIX = "/prepare";
+        
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
                 return;
             }
             
-            int dataLength = dataIn.readInt();
-            byte[] dataBytes = new byte[dataLength];
-            dataIn.readFully(dataBytes);
-            
-            String request = new String(dataBytes, "UTF-8");
-            String[] parts = request.split("\\|"); 
-            
-            if (parts.length != 3) {
-                dataOut.writeUTF("ERROR: Invalid request format");
+            String appKey = exchange.getRequestHeaders().getFirst("X-App-Key");
+            if (appKey == null || !VALID_APP_KEYS.contains(appKey)) {
+                sendResponse(exchange, 401, "Invalid App Key");
                 return;
             }
             
-            String appKey = parts[0];
-            String filePath = parts[1];
-            long startPosition = Long.parseLong(parts[2]);
-            
-            // 验证AppKey
-            if (!VALID_APP_KEYS.contains(appKey)) {
-                dataOut.writeUTF("ERROR: Invalid App Key");
+            // fileId 经过 URL 编码，可能包含 "/"，先按原始路径截取再解码
+            String rawPath = exchange.getRequestURI().getRawPath();
+            if (rawPath.startsWith(PREFIX) && rawPath.endsWith(PREPARE_SUFFIX)
+                    && rawPath.length() > PREFIX.length() + PREPARE_SUFFIX.length()) {
+                // 单个文件详情：客户端下载后校验不一致时用它确认服务端文件是否已变化
+                String fileId = URLDecoder.decode(
+                    rawPath.substring(PREFIX.length(), rawPath.length() - PREPARE_SUFFIX.length()), StandardCharsets.UTF_8);
+                ContentHashIndex.Entry entry = CONTENT_INDEX.getEntry(fileId);
+                if (entry == null) {
+                    sendResponse(exchange, 404, "File not found");
+                    return;
+                }
+                FileInfo info = new FileInfo(entry.getName(), entry.getName(), entry.getSize(), entry.getChecksum());
+                info.setFileId(fileId);
+                sendResponse(exchange, 200, gson.toJson(info));
+                return;
+            }
+            if (!rawPath.startsWith(PREFIX) || !rawPath.endsWith(SUFFIX) || rawPath.length() <= PREFIX.length() + SUFFIX.length()) {
+                exchange.sendResponseHeaders(404, -1);
                 return;
             }
+            String fileId = URLDecoder.decode(
+                rawPath.substring(PREFIX.length(), rawPath.length() - SUFFIX.length()), StandardCharsets.UTF_8);
             
-            // 检查文件是否存在
-            File file = new File(SHARE_DIR, filePath);
-            if (!file.exists() || !file.isFile()) {
-                dataOut.writeUTF("ERROR: File not found");
+            File file = new File(SHARE_DIR, fileId);
+            if (!file.isFile()) {
+                sendResponse(exchange, 404, "File not found");
                 return;
             }
             
-            // 检查起始位置是否有效
-            if (startPosition < 0 || startPosition > file.length()) {
-                dataOut.writeUTF("ERROR: Invalid start position");
+            ChunkManifest manifest = CONTENT_INDEX.getManifest(fileId, file);
+            sendResponse(exchange, 200, gson.toJson(manifest));
+        }
+    }
+    
+    static class BatchPrepareHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
                 return;
             }
             
-            dataOut.writeUTF("OK");
-            dataOut.flush();
+            String appKey = exchange.getRequestHeaders().getFirst("X-App-Key");
+            if (appKey == null || !VALID_APP_KEYS.contains(appKey)) {
+                sendResponse(exchange, 401, "Invalid App Key");
+                return;
+            }
             
-            // 发送文件内容
-            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
-                raf.seek(startPosition);
-                
-                byte[] buffer = new byte[65536]; // 使用 64KB 缓冲区
-                int bytesRead;
-                
-                while ((bytesRead = raf.read(buffer)) != -1) {
-                    dataOut.write(buffer, 0, bytesRead);
+            // 请求体为 fileId 数组，重复的 id 只返回一次
+            Set<String> fileIds = new LinkedHashSet<>();
+            try (JsonReader reader = new JsonReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8))) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    if (reader.peek() == JsonToken.NULL) {
+                        reader.nextNull();
+                        continue;
+                    }
+                    fileIds.add(reader.nextString());
+                    if (fileIds.size() > MAX_BATCH_PREPARE) {
+                        sendResponse(exchange, 413, "Too many fileIds, max " + MAX_BATCH_PREPARE);
+                        return;
+                    }
                 }
-                
-                dataOut.flush();
-                System.out.println("文件传输完成: " + filePath + " (从位置 " + startPosition + ")");
+                reader.endArray();
+            } catch (IOException | IllegalStateException e) {
+                sendResponse(exchange, 400, "Invalid request body");
+                return;
             }
             
-        } catch (Exception e) {
-            System.err.println("处理客户端请求失败: " + e.getMessage());
-            e.printStackTrace();
-        } finally {
-            try {
-                clientSocket.close();
-            } catch (IOException e) {
-                e.printStackTrace();
+            // 分块传输，边查询边写出；不存在的文件不出现在结果中
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+            exchange.sendResponseHeaders(200, 0);
+            try (JsonWriter writer = new JsonWriter(new BufferedWriter(
+                    new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8)))) {
+                writer.beginArray();
+                for (String fileId : fileIds) {
+                    ContentHashIndex.Entry entry = CONTENT_INDEX.getEntry(fileId);
+                    if (entry == null) {
+                        continue;
+                    }
+                    FileInfo info = new FileInfo(entry.getName(), entry.getName(), entry.getSize(), entry.getChecksum());
+                    info.setFileId(fileId);
+                    gson.toJson(info, FileInfo.class, writer);
+                }
+                writer.endArray();
             }
         }
     }
+    
+    private static void sendResponse(HttpExchange exchange, int statusCode, String response) throws IOException {
+        sendResponse(exchange, statusCode, response.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    private static void sendResponse(HttpExchange exchange, int statusCode, byte[] bytes) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        exchange.sendResponseHeaders(statusCode, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
 }
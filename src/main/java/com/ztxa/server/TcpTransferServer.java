@@ -0,0 +1,728 @@
+package com.ztxa.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 基于 Selector 的非阻塞 TCP 下载服务
+ * 固定数量的 selector 线程负责协议头解析、AppKey 校验和文件发送，
+ * 连接数再多也不会额外创建线程；并发传输数超过上限时返回错误并关闭连接
+ *
+ * <p>协议与原阻塞实现完全一致：2字节命令(0x20 0x20) + 4字节长度 + appKey|filePath|startPosition[|endPosition]，
+ * 响应为 writeUTF 格式的 "OK" / "ERROR: ..."，随后是文件数据。</p>
+ *
+ * <p>带结束位置的请求发送完后连接保持打开，客户端可以在同一连接上继续请求下一个文件；
+ * 两次请求之间空闲超过 {@link #IDLE_TIMEOUT_MS} 的连接由服务端关闭。</p>
+ *
+ * <p>批量命令(0x20 0x21)：数据为 appKey|fileId1|fileId2|...，响应 "OK" 后按请求顺序逐个发送文件，
+ * 每个文件前是条目头 writeUTF(fileId) + 8字节长度 + writeUTF(checksum)，随后是文件内容；
+ * 文件不可用时长度为 -1，checksum 位置为错误信息。全部发送完后连接保持打开。
+ * 整批只占用一个并发传输名额。</p>
+ *
+ * <p>可以限制所有连接的总发送速率和单个连接的发送速率（令牌桶）。令牌不足的连接暂时取消 OP_WRITE，
+ * 由 selector 在令牌补足时恢复发送，不阻塞 selector 线程；每次至少攒够一小块再发送，避免碎片化的小包。</p>
+ */
+public class TcpTransferServer {
+    private static final int MAX_REQUEST_LENGTH = 64 * 1024;
+    private static final byte COMMAND_DOWNLOAD = 0x20;
+    private static final byte COMMAND_BATCH = 0x21;
+    private static final long MAX_BYTES_PER_TURN = 1024 * 1024; // 每轮最多发送 1MB，避免单个连接独占 selector 线程
+    private static final long IDLE_TIMEOUT_MS = 60_000; // 比客户端连接池的空闲超时长，客户端通常先放弃空闲连接
+    private static final long IDLE_CHECK_INTERVAL_MS = 10_000;
+    private static final long MIN_THROTTLED_WRITE = 16 * 1024; // 限速时每次至少发送 16KB
+
+    private final int port;
+    private final String shareDir;
+    private final Set<String> validAppKeys;
+    private final ContentHashIndex contentIndex;
+    private final int maxConcurrentTransfers;
+    private final SelectorLoop[] loops;
+    private final AtomicInteger activeTransfers = new AtomicInteger();
+    private final TokenBucket globalLimit; // 所有连接共用，null 表示不限速
+    private final long connectionRate;     // 单个连接的上限（字节/秒），0 表示不限速
+    private int nextLoop = 0;
+
+    /**
+     * @param maxBytesPerSecond 所有连接的总发送速率上限，0 表示不限速
+     * @param maxBytesPerSecondPerConnection 单个连接的发送速率上限，0 表示不限速
+     */
+    public TcpTransferServer(int port, String shareDir, Set<String> validAppKeys, ContentHashIndex contentIndex,
+                             int selectorThreads, int maxConcurrentTransfers,
+                             long maxBytesPerSecond, long maxBytesPerSecondPerConnection) {
+        this.port = port;
+        this.shareDir = shareDir;
+        this.validAppKeys = validAppKeys;
+        this.contentIndex = contentIndex;
+        this.maxConcurrentTransfers = maxConcurrentTransfers;
+        this.globalLimit = maxBytesPerSecond > 0 ? new TokenBucket(maxBytesPerSecond) : null;
+        this.connectionRate = Math.max(0, maxBytesPerSecondPerConnection);
+        this.loops = new SelectorLoop[Math.max(1, selectorThreads)];
+    }
+
+    public void start() throws IOException {
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new SelectorLoop();
+        }
+        // 第一个 selector 同时负责 accept，新连接轮询分配给各个 selector
+        serverChannel.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+
+        for (int i = 0; i < loops.length; i++) {
+            new Thread(loops[i], "tcp-selector-" + i).start();
+        }
+    }
+
+    public int getActiveTransfers() {
+        return activeTransfers.get();
+    }
+
+    private void accept(ServerSocketChannel serverChannel) throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            // 连接复用时响应头 "OK" 和上一个文件的尾部都是小包，关闭 Nagle 避免与客户端延迟确认互相等待
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            SelectorLoop loop = loops[nextLoop];
+            nextLoop = (nextLoop + 1) % loops.length;
+            loop.assign(channel);
+        }
+    }
+
+    /**
+     * 把字符串编码为 DataOutputStream.writeUTF 的格式（2字节长度 + modified UTF-8）
+     */
+    private static ByteBuffer encodeUtf(String message) {
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(message.length() + 2);
+            new DataOutputStream(bos).writeUTF(message);
+            return ByteBuffer.wrap(bos.toByteArray());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 批量传输的条目头：writeUTF(fileId) + 8字节长度 + writeUTF(checksum 或错误信息)
+     */
+    private static ByteBuffer encodeEntryHeader(String fileId, long length, String checksumOrError) {
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(fileId.length() + 96);
+            DataOutputStream out = new DataOutputStream(bos);
+            out.writeUTF(fileId);
+            out.writeLong(length);
+            out.writeUTF(checksumOrError);
+            return ByteBuffer.wrap(bos.toByteArray());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 索引中记录的校验和，只有文件大小和修改时间都与索引一致时才可信，否则返回空字符串
+     */
+    private String indexedChecksum(String fileId, File file, long length) {
+        ContentHashIndex.Entry entry = contentIndex != null ? contentIndex.getEntry(fileId) : null;
+        if (entry == null || entry.getChecksum() == null
+                || entry.getSize() != length || entry.getLastModified() != file.lastModified()) {
+            return "";
+        }
+        return entry.getChecksum();
+    }
+
+    private class SelectorLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+        // 因限速暂停发送的连接，只在本 selector 线程中访问
+        private final List<Connection> throttled = new ArrayList<>();
+        private long lastIdleCheck = System.currentTimeMillis();
+
+        SelectorLoop() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        void assign(SocketChannel channel) {
+            pending.add(channel);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    selector.select(selectTimeout());
+                    registerPending();
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        handleKey(key);
+                    }
+                    resumeThrottled();
+                    closeIdleConnections();
+                } catch (IOException e) {
+                    System.err.println("Selector 循环异常: " + e.getMessage());
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        void throttle(Connection connection) {
+            throttled.add(connection);
+        }
+
+        /**
+         * 有限速暂停的连接时，select 最多等到最早一个连接的令牌补足
+         */
+        private long selectTimeout() {
+            long earliest = Long.MAX_VALUE;
+            for (Connection connection : throttled) {
+                earliest = Math.min(earliest, connection.throttledUntil);
+            }
+            if (earliest == Long.MAX_VALUE) {
+                return IDLE_CHECK_INTERVAL_MS;
+            }
+            long millis = (earliest - System.nanoTime() + 999_999) / 1_000_000;
+            return Math.max(1, Math.min(IDLE_CHECK_INTERVAL_MS, millis));
+        }
+
+        private void resumeThrottled() {
+            if (throttled.isEmpty()) {
+                return;
+            }
+            long now = System.nanoTime();
+            List<Connection> due = new ArrayList<>();
+            throttled.removeIf(connection -> {
+                if (connection.closed) {
+                    return true;
+                }
+                if (connection.throttledUntil - now <= 0) {
+                    due.add(connection);
+                    return true;
+                }
+                return false;
+            });
+            for (Connection connection : due) {
+                connection.throttled = false;
+                try {
+                    connection.service();
+                } catch (Exception e) {
+                    System.err.println("处理客户端请求失败: " + e.getMessage());
+                    connection.close();
+                }
+            }
+        }
+
+        private void registerPending() {
+            SocketChannel channel;
+            while ((channel = pending.poll()) != null) {
+                try {
+                    SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                    key.attach(new Connection(this, channel, key));
+                } catch (IOException e) {
+                    System.err.println("注册连接失败: " + e.getMessage());
+                    closeQuietly(channel);
+                }
+            }
+        }
+
+        /**
+         * 关闭等待下一个请求时空闲太久的连接，正在传输的连接不受影响
+         */
+        private void closeIdleConnections() {
+            long now = System.currentTimeMillis();
+            if (now - lastIdleCheck < IDLE_CHECK_INTERVAL_MS) {
+                return;
+            }
+            lastIdleCheck = now;
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection connection && connection.isIdleSince(now - IDLE_TIMEOUT_MS)) {
+                    connection.close();
+                }
+            }
+        }
+
+        private void handleKey(SelectionKey key) {
+            if (!key.isValid()) {
+                return;
+            }
+            if (key.isAcceptable()) {
+                try {
+                    accept((ServerSocketChannel) key.channel());
+                } catch (IOException e) {
+                    System.err.println("接收连接失败: " + e.getMessage());
+                }
+                return;
+            }
+
+            Connection connection = (Connection) key.attachment();
+            try {
+                if (key.isReadable()) {
+                    connection.onReadable();
+                } else if (key.isWritable()) {
+                    connection.service();
+                }
+            } catch (Exception e) {
+                System.err.println("处理客户端请求失败: " + e.getMessage());
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * 单个客户端连接的状态：读取请求 -> 写响应 -> 发送文件数据，
+     * 带结束位置的请求发送完成后回到读取请求状态
+     */
+    private class Connection {
+        private final SelectorLoop loop;
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private ByteBuffer readBuffer = ByteBuffer.allocate(8192);
+        private ByteBuffer responseBuffer;
+        private FileChannel fileChannel;
+        private String filePath;
+        private long transferStart;
+        private long position;
+        private long endPosition;
+        private boolean holdsTransferSlot;
+        private boolean closeAfterWrite;
+        private boolean closed;
+        // 批量传输中尚未发送的 fileId，以及本批的文件数（用于日志）
+        private Queue<String> batchQueue;
+        private int batchSize;
+        private long lastActivity = System.currentTimeMillis();
+        private final TokenBucket rateLimit = connectionRate > 0 ? new TokenBucket(connectionRate) : null;
+        private boolean throttled;
+        private long throttledUntil; // 令牌补足的 System.nanoTime() 时间点
+
+        Connection(SelectorLoop loop, SocketChannel channel, SelectionKey key) {
+            this.loop = loop;
+            this.channel = channel;
+            this.key = key;
+        }
+
+        boolean isIdleSince(long time) {
+            return !hasPendingOutput() && lastActivity < time;
+        }
+
+        void onReadable() throws IOException {
+            if (!readBuffer.hasRemaining()) {
+                growReadBuffer();
+            }
+            int n = channel.read(readBuffer);
+            if (n == -1) {
+                close(); // 客户端已关闭连接
+                return;
+            }
+            service();
+        }
+
+        /**
+         * 尽可能推进连接状态：先把待发送的数据写完，再解析缓冲区中的下一个请求
+         */
+        void service() throws IOException {
+            lastActivity = System.currentTimeMillis();
+            while (!closed) {
+                if (hasPendingOutput()) {
+                    if (!writeOutput()) {
+                        if (throttled) {
+                            // 令牌不足：不再关注 OP_WRITE，由 selector 到时恢复
+                            key.interestOps(0);
+                            loop.throttle(this);
+                        } else {
+                            key.interestOps(SelectionKey.OP_WRITE);
+                        }
+                        return;
+                    }
+                    if (closeAfterWrite) {
+                        close();
+                        return;
+                    }
+                }
+                if (!parseRequest()) {
+                    key.interestOps(SelectionKey.OP_READ);
+                    return;
+                }
+            }
+        }
+
+        private boolean hasPendingOutput() {
+            return responseBuffer != null || fileChannel != null || batchQueue != null;
+        }
+
+        /**
+         * @return 所有待发送数据是否已写完
+         */
+        private boolean writeOutput() throws IOException {
+            long budget = MAX_BYTES_PER_TURN;
+            while (true) {
+                if (responseBuffer != null) {
+                    channel.write(responseBuffer);
+                    if (responseBuffer.hasRemaining()) {
+                        return false;
+                    }
+                    responseBuffer = null;
+                }
+
+                if (fileChannel != null) {
+                    while (position < endPosition && budget > 0) {
+                        long allowed = allowance(Math.min(budget, endPosition - position));
+                        if (allowed <= 0) {
+                            return false; // 令牌不足，已标记为限速暂停
+                        }
+                        long sent = fileChannel.transferTo(position, allowed, channel);
+                        if (sent <= 0) {
+                            if (position >= fileChannel.size()) {
+                                // 文件在传输过程中被截断，无法按约定长度发送，只能关闭连接
+                                System.err.println("文件传输提前结束: " + filePath + " (缺少 " + (endPosition - position) + " 字节)");
+                                closeAfterWrite = true;
+                                finishTransfer();
+                                return true;
+                            }
+                            return false; // socket 发送缓冲区已满，等待 OP_WRITE
+                        }
+                        position += sent;
+                        budget -= sent;
+                        consumeTokens(sent);
+                    }
+                    if (position < endPosition) {
+                        return false; // 本轮额度用完，让出 selector 给其他连接
+                    }
+                    if (batchQueue == null) {
+                        System.out.println("文件传输完成: " + filePath + " (范围 " + transferStart + "-" + endPosition + ")");
+                    }
+                    closeFile();
+                }
+
+                if (batchQueue == null) {
+                    finishTransfer();
+                    return true;
+                }
+                if (!nextBatchEntry()) {
+                    System.out.println("批量传输完成: " + batchSize + " 个文件");
+                    finishTransfer();
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * 按全局和本连接的令牌计算本次最多可以发送的字节数；不够一小块时标记为限速暂停并返回 0
+         */
+        private long allowance(long wanted) {
+            if (globalLimit == null && rateLimit == null) {
+                return wanted;
+            }
+            long allowed = wanted;
+            if (globalLimit != null) {
+                allowed = Math.min(allowed, globalLimit.available());
+            }
+            if (rateLimit != null) {
+                allowed = Math.min(allowed, rateLimit.available());
+            }
+            long minimum = Math.min(wanted, MIN_THROTTLED_WRITE);
+            if (allowed >= minimum) {
+                return allowed;
+            }
+            long waitNanos = 0;
+            if (globalLimit != null) {
+                waitNanos = globalLimit.nanosUntil(minimum);
+            }
+            if (rateLimit != null) {
+                waitNanos = Math.max(waitNanos, rateLimit.nanosUntil(minimum));
+            }
+            throttled = true;
+            throttledUntil = System.nanoTime() + waitNanos;
+            return 0;
+        }
+
+        private void consumeTokens(long bytes) {
+            if (globalLimit != null) {
+                globalLimit.consume(bytes);
+            }
+            if (rateLimit != null) {
+                rateLimit.consume(bytes);
+            }
+        }
+
+        /**
+         * 从读缓冲区解析一个完整请求
+         * @return 是否解析到请求（并已准备好响应）
+         */
+        private boolean parseRequest() {
+            readBuffer.flip();
+            try {
+                // 协议头: 2字节命令(0x20 0x20) + 4字节长度 + 数据内容
+                if (readBuffer.remaining() < 6) {
+                    return false;
+                }
+                readBuffer.mark();
+                byte b0 = readBuffer.get();
+                byte b1 = readBuffer.get();
+                if (b0 != 0x20 || (b1 != COMMAND_DOWNLOAD && b1 != COMMAND_BATCH)) {
+                    sendError("ERROR: Invalid protocol header");
+                    return true;
+                }
+                int dataLength = readBuffer.getInt();
+                if (dataLength < 0 || dataLength > MAX_REQUEST_LENGTH) {
+                    sendError("ERROR: Invalid request format");
+                    return true;
+                }
+                if (readBuffer.remaining() < dataLength) {
+                    readBuffer.reset();
+                    return false;
+                }
+                byte[] dataBytes = new byte[dataLength];
+                readBuffer.get(dataBytes);
+                String request = new String(dataBytes, StandardCharsets.UTF_8);
+                if (b1 == COMMAND_BATCH) {
+                    handleBatchRequest(request);
+                } else {
+                    handleRequest(request);
+                }
+                return true;
+            } finally {
+                readBuffer.compact();
+            }
+        }
+
+        private void handleRequest(String request) {
+            // 请求格式: appKey|filePath|startPosition[|endPosition]，endPosition 不包含在内
+            String[] parts = request.split("\\|");
+            if (parts.length != 3 && parts.length != 4) {
+                sendError("ERROR: Invalid request format");
+                return;
+            }
+
+            String appKey = parts[0];
+            String requestPath = parts[1];
+            long startPosition;
+            long requestedEnd;
+            try {
+                startPosition = Long.parseLong(parts[2]);
+                requestedEnd = parts.length == 4 ? Long.parseLong(parts[3]) : -1;
+            } catch (NumberFormatException e) {
+                sendError("ERROR: Invalid request format");
+                return;
+            }
+
+            // 验证AppKey
+            if (!validAppKeys.contains(appKey)) {
+                sendError("ERROR: Invalid App Key");
+                return;
+            }
+
+            // 检查文件是否存在
+            File file = new File(shareDir, requestPath);
+            if (!file.exists() || !file.isFile()) {
+                sendError("ERROR: File not found");
+                return;
+            }
+
+            // 检查起始位置是否有效
+            long fileLength = file.length();
+            if (startPosition < 0 || startPosition > fileLength) {
+                sendError("ERROR: Invalid start position");
+                return;
+            }
+
+            // 未指定结束位置时发送到文件末尾并关闭连接（兼容旧客户端）
+            boolean bounded = parts.length == 4;
+            long end = bounded ? requestedEnd : fileLength;
+            if (end < startPosition || end > fileLength) {
+                sendError("ERROR: Invalid end position");
+                return;
+            }
+
+            // 并发传输数限制
+            if (activeTransfers.incrementAndGet() > maxConcurrentTransfers) {
+                activeTransfers.decrementAndGet();
+                sendError("ERROR: Server busy");
+                return;
+            }
+            holdsTransferSlot = true;
+
+            try {
+                fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            } catch (IOException e) {
+                finishTransfer();
+                sendError("ERROR: File not readable");
+                return;
+            }
+
+            filePath = requestPath;
+            transferStart = startPosition;
+            position = startPosition;
+            endPosition = end;
+            closeAfterWrite = !bounded;
+            responseBuffer = encodeUtf("OK");
+        }
+
+        private void handleBatchRequest(String request) {
+            // 请求格式: appKey|fileId1|fileId2|...
+            String[] parts = request.split("\\|");
+            if (parts.length < 2) {
+                sendError("ERROR: Invalid request format");
+                return;
+            }
+            if (!validAppKeys.contains(parts[0])) {
+                sendError("ERROR: Invalid App Key");
+                return;
+            }
+
+            // 整批只占用一个并发传输名额
+            if (activeTransfers.incrementAndGet() > maxConcurrentTransfers) {
+                activeTransfers.decrementAndGet();
+                sendError("ERROR: Server busy");
+                return;
+            }
+            holdsTransferSlot = true;
+
+            batchQueue = new ArrayDeque<>(parts.length - 1);
+            for (int i = 1; i < parts.length; i++) {
+                batchQueue.add(parts[i]);
+            }
+            batchSize = batchQueue.size();
+            closeAfterWrite = false;
+            responseBuffer = encodeUtf("OK");
+        }
+
+        /**
+         * 准备批量传输中的下一个文件：写入条目头并打开文件
+         * @return 批量中是否还有文件
+         */
+        private boolean nextBatchEntry() {
+            String fileId = batchQueue.poll();
+            if (fileId == null) {
+                return false;
+            }
+            File file = new File(shareDir, fileId);
+            if (!file.isFile()) {
+                responseBuffer = encodeEntryHeader(fileId, -1, "ERROR: File not found");
+                return true;
+            }
+            try {
+                fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            } catch (IOException e) {
+                responseBuffer = encodeEntryHeader(fileId, -1, "ERROR: File not readable");
+                return true;
+            }
+            long length = file.length();
+            filePath = fileId;
+            transferStart = 0;
+            position = 0;
+            endPosition = length;
+            responseBuffer = encodeEntryHeader(fileId, length, indexedChecksum(fileId, file, length));
+            return true;
+        }
+
+        private void sendError(String message) {
+            responseBuffer = encodeUtf(message);
+            closeAfterWrite = true;
+        }
+
+        private void closeFile() {
+            if (fileChannel != null) {
+                try {
+                    fileChannel.close();
+                } catch (IOException e) {
+                    System.err.println("关闭文件失败: " + e.getMessage());
+                }
+                fileChannel = null;
+            }
+        }
+
+        private void finishTransfer() {
+            closeFile();
+            batchQueue = null;
+            if (holdsTransferSlot) {
+                holdsTransferSlot = false;
+                activeTransfers.decrementAndGet();
+            }
+        }
+
+        private void growReadBuffer() {
+            ByteBuffer larger = ByteBuffer.allocate(Math.min(readBuffer.capacity() * 2, MAX_REQUEST_LENGTH + 6));
+            readBuffer.flip();
+            larger.put(readBuffer);
+            readBuffer = larger;
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            finishTransfer();
+            key.cancel();
+            closeQuietly(channel);
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("关闭连接失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 令牌桶：容量约 50ms 的流量（至少 64KB），多个 selector 线程共用时并发取用可能略微透支，随后补足
+     */
+    private static class TokenBucket {
+        private final long rate; // 字节/秒
+        private final double capacity;
+        private double tokens;
+        private long refilledAt = System.nanoTime();
+
+        TokenBucket(long rate) {
+            this.rate = rate;
+            this.capacity = Math.max(64 * 1024, rate / 20.0);
+            this.tokens = capacity;
+        }
+
+        synchronized long available() {
+            refill();
+            return (long) Math.max(0, tokens);
+        }
+
+        synchronized void consume(long bytes) {
+            refill();
+            tokens -= bytes;
+        }
+
+        /**
+         * 距离攒够 bytes 个令牌还需要的纳秒数
+         */
+        synchronized long nanosUntil(long bytes) {
+            refill();
+            return tokens >= bytes ? 0 : (long) ((bytes - tokens) * 1_000_000_000L / rate);
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - refilledAt) * rate / 1_000_000_000.0);
+            refilledAt = now;
+        }
+    }
+}
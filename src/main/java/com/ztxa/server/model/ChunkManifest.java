@@ -0,0 +1,65 @@
+package com.ztxa.server.model;
+
+import java.util.List;
+
+/**
+ * 文件分块清单：按固定大小切块的 SHA-256 列表，以及由这些块哈希两两合并得到的 Merkle 根
+ */
+public class ChunkManifest {
+    private long fileSize;
+    private int chunkSize;
+    private String algorithm;
+    private String rootHash;
+    private List<String> chunkHashes;
+
+    public ChunkManifest() {
+    }
+
+    public ChunkManifest(long fileSize, int chunkSize, String algorithm, String rootHash, List<String> chunkHashes) {
+        this.fileSize = fileSize;
+        this.chunkSize = chunkSize;
+        this.algorithm = algorithm;
+        this.rootHash = rootHash;
+        this.chunkHashes = chunkHashes;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public void setFileSize(long fileSize) {
+        this.fileSize = fileSize;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    public void setAlgorithm(String algorithm) {
+        this.algorithm = algorithm;
+    }
+
+    public String getRootHash() {
+        return rootHash;
+    }
+
+    public void setRootHash(String rootHash) {
+        this.rootHash = rootHash;
+    }
+
+    public List<String> getChunkHashes() {
+        return chunkHashes;
+    }
+
+    public void setChunkHashes(List<String> chunkHashes) {
+        this.chunkHashes = chunkHashes;
+    }
+}
@@ -1,6 +1,7 @@
 package com.ztxa.server.model;
 
 public class FileInfo {
+    private String fileId;        // 批量准备接口返回，示例服务端即共享目录中的文件名
     private String fileName;
     private String filePath;
     private long fileSize;
@@ -18,6 +19,14 @@ public class FileInfo {
         this.timestamp = System.currentTimeMillis();
     }
 
+    public String getFileId() {
+        return fileId;
+    }
+
+    public void setFileId(String fileId) {
+        this.fileId = fileId;
+    }
+
     public String getFileName() {
         return fileName;
     }